@@ -0,0 +1,160 @@
+package org.example.clientapp.grpc;
+
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import servicesf.BulkSubmissionRequest;
+import servicesf.BulkSubmissionResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Class for handling the submission of every image in a directory over a single call.
+ */
+public class BulkSubmission {
+
+    /**
+     * Submits every file of a directory to the server for processing.
+     * Images are sent one after the other in chunks tagged with their position in the directory listing,
+     * and at most maxInFlight images are sent before the server acknowledges the earlier ones.
+     *
+     * @param grpcClient  The gRPC client for making requests.
+     * @param scan        Scanner object for user input.
+     * @param chunkSize   The size in bytes of each chunk sent to the server.
+     * @param maxInFlight The maximum number of images sent and not yet acknowledged.
+     */
+    public static void submitDirectory(GrpcClient grpcClient, Scanner scan, int chunkSize, int maxInFlight) {
+        System.out.print("Enter the path to the image directory: ");
+        Path directory = Paths.get(scan.next());
+        List<Path> files;
+        try (Stream<Path> entries = Files.list(directory)) {
+            files = entries.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("Error reading image directory: " + e.getMessage());
+            return;
+        }
+        if (files.isEmpty()) {
+            System.out.println("No files found in " + directory);
+            return;
+        }
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        CountDownLatch callLatch = new CountDownLatch(1);
+        Object readyLock = new Object();
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        ClientResponseObserver<BulkSubmissionRequest, BulkSubmissionResponse> responseObserver =
+                new ClientResponseObserver<BulkSubmissionRequest, BulkSubmissionResponse>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<BulkSubmissionRequest> requestObserver) {
+                        requestObserver.setOnReadyHandler(() -> signal(readyLock));
+                    }
+
+                    @Override
+                    public void onNext(BulkSubmissionResponse response) {
+                        Path file = files.get(response.getImageId());
+                        if (response.getError().isEmpty()) {
+                            accepted.incrementAndGet();
+                            System.out.println(file.getFileName() + " submitted. Unique ID: " + response.getUniqueId());
+                        } else {
+                            rejected.incrementAndGet();
+                            System.out.println(file.getFileName() + " failed: " + response.getError());
+                        }
+                        inFlight.release();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        System.out.println("Error submitting images: " + t.getMessage());
+                        callLatch.countDown();
+                        // Unblock the sender, nothing more will be acknowledged
+                        inFlight.release(maxInFlight);
+                        signal(readyLock);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        callLatch.countDown();
+                    }
+                };
+
+        ClientCallStreamObserver<BulkSubmissionRequest> requestObserver =
+                (ClientCallStreamObserver<BulkSubmissionRequest>) grpcClient.getStubSF().submitImages(responseObserver);
+        try {
+            for (int imageId = 0; imageId < files.size() && callLatch.getCount() > 0; imageId++) {
+                inFlight.acquire();
+                if (!sendImage(requestObserver, imageId, files.get(imageId), chunkSize, readyLock, callLatch)) {
+                    inFlight.release();
+                }
+            }
+            requestObserver.onCompleted();
+
+            // Wait for the server to acknowledge every image
+            callLatch.await();
+        } catch (InterruptedException e) {
+            requestObserver.cancel("Interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Submitted " + accepted.get() + " images, " + rejected.get() + " failed.");
+    }
+
+    /**
+     * Sends the frames of one image, waiting for the call to be ready before each one.
+     *
+     * @return true if the image was sent, false if the file could not be read and nothing was sent.
+     */
+    private static boolean sendImage(ClientCallStreamObserver<BulkSubmissionRequest> requestObserver, int imageId,
+                                     Path file, int chunkSize, Object readyLock, CountDownLatch callLatch)
+            throws InterruptedException {
+        MappedByteBuffer image;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.out.println("Error reading image file " + file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+        // An empty file still sends one frame, so that the server acknowledges it
+        do {
+            synchronized (readyLock) {
+                while (!requestObserver.isReady() && callLatch.getCount() > 0) {
+                    readyLock.wait();
+                }
+            }
+            if (callLatch.getCount() == 0) {
+                return true;
+            }
+            int length = Math.min(chunkSize, image.remaining());
+            // Wrap a slice of the mapped file, without copying it
+            ByteBuffer chunk = image.slice();
+            chunk.limit(length);
+            image.position(image.position() + length);
+            requestObserver.onNext(BulkSubmissionRequest.newBuilder()
+                    .setImageId(imageId)
+                    .setImageChunk(UnsafeByteOperations.unsafeWrap(chunk))
+                    .setLast(!image.hasRemaining())
+                    .build());
+        } while (image.hasRemaining());
+        return true;
+    }
+
+    private static void signal(Object readyLock) {
+        synchronized (readyLock) {
+            readyLock.notifyAll();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.example.clientapp.grpc.GrpcClient;
 import servicesf.AllFilesWithRequest;
 import servicesf.AllFilesWithResponse;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Scanner;
 
@@ -23,13 +24,20 @@ public class FileNames {
         String startDate = scan.next();
         System.out.print("Enter the end date (dd-MM-yyyy): ");
         String endDate = scan.next();
-        System.out.print("Enter the characteristic: ");
-        String characteristic = scan.next();
+        System.out.print("Enter the characteristics (comma separated): ");
+        String[] characteristics = scan.next().split(",");
+        boolean matchAll = false;
+        if (characteristics.length > 1) {
+            System.out.print("Match all characteristics? (y/n): ");
+            matchAll = scan.next().equalsIgnoreCase("y");
+        }
 
         AllFilesWithRequest allFilesWithRequest = AllFilesWithRequest.newBuilder()
                 .setStartDate(startDate)
                 .setEndDate(endDate)
-                .setCharacteristic(characteristic)
+                .setCharacteristic(characteristics[0])
+                .addAllCharacteristics(Arrays.asList(characteristics).subList(1, characteristics.length))
+                .setMatchAll(matchAll)
                 .build();
 
         try {
@@ -2,9 +2,15 @@ package org.example.clientapp.grpc;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.NameResolverRegistry;
+import org.example.clientapp.utils.ClientConfig;
+import org.example.clientapp.utils.IpFetcher;
 import servicesf.ServiceSFGrpc;
 import servicesg.ServiceSGGrpc;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * gRPC client class for managing the gRPC channel and stubs.
  */
@@ -15,12 +21,23 @@ public class GrpcClient {
     private final ServiceSGGrpc.ServiceSGBlockingStub blockingStubSG;
 
     /**
-     * Constructs a GrpcClient with the given IP address.
+     * Constructs a GrpcClient balancing its calls across the gRPC servers found by the lookup function.
+     * Each server is health checked, so calls are only sent to the servers reporting that they are serving.
      *
-     * @param ip The IP address of the gRPC server.
+     * @param ipFetcher Fetches the IP addresses of the running servers.
+     * @param config    The client configuration.
      */
-    public GrpcClient(String ip) {
-        this.channel = ManagedChannelBuilder.forAddress(ip, 8000).usePlaintext().build();
+    public GrpcClient(IpFetcher ipFetcher, ClientConfig config) {
+        NameResolverRegistry.getDefaultRegistry().register(new LookupNameResolverProvider(
+                ipFetcher, config.getServerPort(), config.getLookupRefreshSeconds()));
+        Map<String, Object> serviceConfig = Map.of(
+                "loadBalancingConfig", Collections.singletonList(Map.of(config.getLoadBalancingPolicy(), Map.of())),
+                // The empty service name is the overall health of the server
+                "healthCheckConfig", Map.of("serviceName", ""));
+        this.channel = ManagedChannelBuilder.forTarget(LookupNameResolverProvider.SCHEME + ":///servers")
+                .defaultServiceConfig(serviceConfig)
+                .usePlaintext()
+                .build();
         this.stubSF = ServiceSFGrpc.newStub(channel);
         this.blockingStubSF = ServiceSFGrpc.newBlockingStub(channel);
         this.blockingStubSG = ServiceSGGrpc.newBlockingStub(channel);
@@ -1,14 +1,18 @@
 package org.example.clientapp.grpc;
 
-import com.google.protobuf.ByteString;
-import io.grpc.stub.StreamObserver;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import servicesf.ImageSubmissionRequest;
 import servicesf.ImageSubmissionResponse;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Scanner;
 import java.util.concurrent.CountDownLatch;
 
@@ -19,25 +23,22 @@ public class ImageSubmission {
 
     /**
      * Submits an image to the server for processing.
+     * The file is memory-mapped and streamed in chunks, sending a chunk only when the call is ready.
      *
-     * @param grpcClient    The gRPC client for making requests.
+     * @param grpcClient     The gRPC client for making requests.
      * @param operationLatch A latch to wait for the operation to complete.
-     * @param scan          Scanner object for user input.
+     * @param scan           Scanner object for user input.
+     * @param chunkSize      The size in bytes of each chunk sent to the server.
      */
-    public static void submitImage(GrpcClient grpcClient, CountDownLatch operationLatch, Scanner scan) {
-        try {
-            System.out.print("Enter the path to the image file: ");
-            String imagePathString = scan.next();
-            Path imagePath = Paths.get(imagePathString);
-            byte[] imageBytes = Files.readAllBytes(imagePath);
+    public static void submitImage(GrpcClient grpcClient, CountDownLatch operationLatch, Scanner scan, int chunkSize) {
+        System.out.print("Enter the path to the image file: ");
+        String imagePathString = scan.next();
+        Path imagePath = Paths.get(imagePathString);
+        try (FileChannel channel = FileChannel.open(imagePath, StandardOpenOption.READ)) {
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 
-            // Create a stream observer to handle the response from the server
-            StreamObserver<ImageSubmissionResponse> responseObserver = createResponseObserver(operationLatch);
-
-            // Send the image bytes to the server
-            StreamObserver<ImageSubmissionRequest> requestObserver = grpcClient.getStubSF().submitImage(responseObserver);
-            requestObserver.onNext(ImageSubmissionRequest.newBuilder().setImageChunk(ByteString.copyFrom(imageBytes)).build());
-            requestObserver.onCompleted();
+            // Send the image chunks to the server as the call becomes ready
+            grpcClient.getStubSF().submitImage(createResponseObserver(image, chunkSize, operationLatch));
 
             // Wait for the operation to complete
             operationLatch.await();
@@ -47,13 +48,42 @@ public class ImageSubmission {
     }
 
     /**
-     * Creates a response observer to handle responses from the server.
+     * Creates a response observer that streams the image to the server and handles its response.
      *
+     * @param image          The image contents.
+     * @param chunkSize      The size in bytes of each chunk.
      * @param operationLatch A latch to wait for the operation to complete.
-     * @return A StreamObserver for ImageSubmissionResponse.
+     * @return A ClientResponseObserver for the image submission.
      */
-    private static StreamObserver<ImageSubmissionResponse> createResponseObserver(CountDownLatch operationLatch) {
-        return new StreamObserver<ImageSubmissionResponse>() {
+    private static ClientResponseObserver<ImageSubmissionRequest, ImageSubmissionResponse> createResponseObserver(
+            MappedByteBuffer image, int chunkSize, CountDownLatch operationLatch) {
+        return new ClientResponseObserver<ImageSubmissionRequest, ImageSubmissionResponse>() {
+            private boolean completed = false;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<ImageSubmissionRequest> requestObserver) {
+                requestObserver.setOnReadyHandler(() -> {
+                    synchronized (image) {
+                        // Only buffer as much as the transport can take, the handler runs again when it drains
+                        while (!completed && requestObserver.isReady()) {
+                            if (!image.hasRemaining()) {
+                                requestObserver.onCompleted();
+                                completed = true;
+                                break;
+                            }
+                            int length = Math.min(chunkSize, image.remaining());
+                            // Wrap a slice of the mapped file, without copying it
+                            ByteBuffer chunk = image.slice();
+                            chunk.limit(length);
+                            image.position(image.position() + length);
+                            requestObserver.onNext(ImageSubmissionRequest.newBuilder()
+                                    .setImageChunk(UnsafeByteOperations.unsafeWrap(chunk))
+                                    .build());
+                        }
+                    }
+                });
+            }
+
             @Override
             public void onNext(ImageSubmissionResponse response) {
                 System.out.println("Image submitted successfully. Unique ID: " + response.getUniqueId());
@@ -0,0 +1,108 @@
+package org.example.clientapp.grpc;
+
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+import org.example.clientapp.utils.IpFetcher;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the gRPC servers from the lookup Cloud Function, so the channel balances its calls across every
+ * running server instance. The lookup is repeated every refresh interval, and whenever the channel asks for it
+ * after losing a connection, so instances added or removed by scaling are picked up without user action.
+ */
+public class LookupNameResolver extends NameResolver {
+    private final String authority;
+    private final IpFetcher ipFetcher;
+    private final int port;
+    private final long refreshSeconds;
+    private final SynchronizationContext syncContext;
+    // The lookup is a blocking HTTP call, so it runs on its own thread rather than on the channel threads
+    private final ScheduledExecutorService lookupExecutor = Executors.newSingleThreadScheduledExecutor();
+    private Listener2 listener;
+    private boolean resolving;
+    private boolean shutdown;
+    private boolean resolved;
+
+    /**
+     * Constructs a LookupNameResolver.
+     *
+     * @param authority      The authority of the channel target.
+     * @param ipFetcher      Fetches the IP addresses of the running servers.
+     * @param port           The port the servers listen on.
+     * @param refreshSeconds The time in seconds between two lookups.
+     * @param syncContext    The synchronization context of the channel.
+     */
+    LookupNameResolver(String authority, IpFetcher ipFetcher, int port, long refreshSeconds, SynchronizationContext syncContext) {
+        this.authority = authority;
+        this.ipFetcher = ipFetcher;
+        this.port = port;
+        this.refreshSeconds = refreshSeconds;
+        this.syncContext = syncContext;
+    }
+
+    @Override
+    public String getServiceAuthority() {
+        return authority;
+    }
+
+    @Override
+    public void start(Listener2 listener) {
+        this.listener = listener;
+        resolve();
+        lookupExecutor.scheduleWithFixedDelay(() -> syncContext.execute(this::resolve),
+                refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void refresh() {
+        resolve();
+    }
+
+    /**
+     * Starts a lookup unless one is already running. Called from the synchronization context.
+     */
+    private void resolve() {
+        if (resolving || shutdown) {
+            return;
+        }
+        resolving = true;
+        lookupExecutor.execute(() -> {
+            List<String> ips = ipFetcher.fetchIPAddresses();
+            syncContext.execute(() -> onLookup(ips));
+        });
+    }
+
+    private void onLookup(List<String> ips) {
+        resolving = false;
+        if (shutdown) {
+            return;
+        }
+        if (ips.isEmpty()) {
+            // A failed lookup keeps the last servers, which the health checks still route around if they are gone
+            if (!resolved) {
+                listener.onError(Status.UNAVAILABLE.withDescription("No gRPC server found by the lookup function"));
+            }
+            return;
+        }
+        List<EquivalentAddressGroup> servers = new ArrayList<>();
+        for (String ip : ips) {
+            servers.add(new EquivalentAddressGroup(new InetSocketAddress(ip, port)));
+        }
+        resolved = true;
+        listener.onResult(ResolutionResult.newBuilder().setAddresses(servers).build());
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        lookupExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.clientapp.grpc;
+
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+import org.example.clientapp.utils.IpFetcher;
+
+import java.net.URI;
+
+/**
+ * Provides the {@link LookupNameResolver} for targets of the form {@code lookup:///servers}.
+ */
+public class LookupNameResolverProvider extends NameResolverProvider {
+    static final String SCHEME = "lookup";
+
+    private final IpFetcher ipFetcher;
+    private final int port;
+    private final long refreshSeconds;
+
+    /**
+     * Constructs a LookupNameResolverProvider.
+     *
+     * @param ipFetcher      Fetches the IP addresses of the running servers.
+     * @param port           The port the servers listen on.
+     * @param refreshSeconds The time in seconds between two lookups.
+     */
+    public LookupNameResolverProvider(IpFetcher ipFetcher, int port, long refreshSeconds) {
+        this.ipFetcher = ipFetcher;
+        this.port = port;
+        this.refreshSeconds = refreshSeconds;
+    }
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+        if (!SCHEME.equals(targetUri.getScheme())) {
+            return null;
+        }
+        String authority = targetUri.getPath().startsWith("/") ? targetUri.getPath().substring(1) : targetUri.getPath();
+        return new LookupNameResolver(authority, ipFetcher, port, refreshSeconds, args.getSynchronizationContext());
+    }
+
+    @Override
+    public String getDefaultScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    protected boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    protected int priority() {
+        return 5;
+    }
+}
@@ -1,11 +1,14 @@
 package org.example.clientapp.services;
 
+import io.grpc.StatusRuntimeException;
 import org.example.clientapp.grpc.GrpcClient;
 import org.example.clientapp.menu.SubMenu;
 import servicesg.ScaleImageProcessorRequest;
 import servicesg.ScaleImageProcessorResponse;
 import servicesg.ScaleServerInstancesRequest;
 import servicesg.ScaleServerInstancesResponse;
+import servicesg.ScalingOperationStatusRequest;
+import servicesg.ScalingOperationStatusResponse;
 
 import java.util.Scanner;
 
@@ -13,7 +16,6 @@ import java.util.Scanner;
  * Class for handling elasticity operations (SG).
  */
 public class ElasticityOperations {
-
     /**
      * Handles the elasticity operations menu and executes the selected option.
      *
@@ -24,6 +26,7 @@ public class ElasticityOperations {
         int subOption = SubMenu.display("Operações para gestão de elasticidade (SG)", new String[]{
                 "Add or remove gRPC server instances",
                 "Add or remove Image Processing server instances",
+                "Check a scaling operation",
                 "Exit"
         }, scan);
 
@@ -35,6 +38,9 @@ public class ElasticityOperations {
                 scaleImageProcessors(grpcClient, scan);
                 break;
             case 2:
+                checkScalingOperation(grpcClient, scan);
+                break;
+            case 3:
                 return;
             default:
                 System.out.println("Invalid Option!");
@@ -54,7 +60,7 @@ public class ElasticityOperations {
                 .setNumInstances(numServerInstances)
                 .build();
         ScaleServerInstancesResponse response = grpcClient.getBlockingStubSG().scaleServerInstances(request);
-        System.out.println(response.getMessage());
+        System.out.println(response.getMessage() + " (operation " + response.getOperationId() + ")");
     }
 
     /**
@@ -70,6 +76,33 @@ public class ElasticityOperations {
                 .setNumInstances(numImageProcessingInstances)
                 .build();
         ScaleImageProcessorResponse response = grpcClient.getBlockingStubSG().scaleImageProcessorsInstances(request);
-        System.out.println(response.getMessage());
+        System.out.println(response.getMessage() + " (operation " + response.getOperationId() + ")");
+    }
+
+    /**
+     * Shows the state of a scaling operation.
+     *
+     * @param grpcClient The gRPC client for making requests.
+     * @param scan       Scanner object for user input.
+     */
+    private static void checkScalingOperation(GrpcClient grpcClient, Scanner scan) {
+        System.out.print("Enter the operation ID: ");
+        String operationId = scan.next();
+        ScalingOperationStatusRequest request = ScalingOperationStatusRequest.newBuilder()
+                .setOperationId(operationId)
+                .build();
+        try {
+            ScalingOperationStatusResponse response = grpcClient.getBlockingStubSG().getScalingOperationStatus(request);
+            System.out.println("Scaling " + response.getGroupName() + " to " + response.getTargetSize()
+                    + ": " + response.getState() + " " + response.getProgress() + "%");
+            if (!response.getError().isEmpty()) {
+                System.out.println("Error: " + response.getError());
+            }
+            if (!response.getSupersededBy().isEmpty()) {
+                System.out.println("Replaced by operation " + response.getSupersededBy());
+            }
+        } catch (StatusRuntimeException e) {
+            System.out.println("Error: " + e.getStatus().getDescription());
+        }
     }
 }
@@ -1,10 +1,12 @@
 package org.example.clientapp.services;
 
+import org.example.clientapp.grpc.BulkSubmission;
 import org.example.clientapp.grpc.FileNames;
 import org.example.clientapp.grpc.GrpcClient;
 import org.example.clientapp.grpc.ImageDetails;
 import org.example.clientapp.grpc.ImageSubmission;
 import org.example.clientapp.menu.SubMenu;
+import org.example.clientapp.utils.ClientConfig;
 
 import java.util.Scanner;
 import java.util.concurrent.CountDownLatch;
@@ -19,12 +21,14 @@ public class FunctionalOperations {
      *
      * @param grpcClient The gRPC client for making requests.
      * @param scan       Scanner object for user input.
+     * @param config     The client configuration.
      */
-    public static void handle(GrpcClient grpcClient, Scanner scan) {
+    public static void handle(GrpcClient grpcClient, Scanner scan, ClientConfig config) {
         int subOption = SubMenu.display("Operações funcionais (SF)", new String[]{
                 "Submit a new image to detect characteristics",
                 "Obtain characteristics and date of an image by its unique ID",
                 "Obtain names of files in the system between two dates",
+                "Submit every image in a directory",
                 "Exit"
         }, scan);
 
@@ -32,7 +36,7 @@ public class FunctionalOperations {
 
         switch (subOption) {
             case 0:
-                ImageSubmission.submitImage(grpcClient, operationLatch, scan);
+                ImageSubmission.submitImage(grpcClient, operationLatch, scan, config.getUploadChunkSizeBytes());
                 break;
             case 1:
                 ImageDetails.getImageDetails(grpcClient, scan);
@@ -41,6 +45,10 @@ public class FunctionalOperations {
                 FileNames.getNamesBetweenDates(grpcClient, scan);
                 break;
             case 3:
+                BulkSubmission.submitDirectory(grpcClient, scan,
+                        config.getUploadChunkSizeBytes(), config.getBulkMaxInFlightImages());
+                break;
+            case 4:
                 return;
             default:
                 System.out.println("Invalid Option!");
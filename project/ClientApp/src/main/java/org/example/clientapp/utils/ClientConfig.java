@@ -0,0 +1,57 @@
+package org.example.clientapp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * ClientConfig loads configuration settings for the client application from a properties file.
+ */
+public class ClientConfig {
+    private final int uploadChunkSizeBytes;
+    private final int bulkMaxInFlightImages;
+    private final int serverPort;
+    private final long lookupRefreshSeconds;
+    private final String loadBalancingPolicy;
+
+    /**
+     * Constructs a new ClientConfig, loading settings from the properties file.
+     *
+     * @throws IOException if there is an error loading the properties file
+     */
+    public ClientConfig() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = getClass().getResourceAsStream("/client.properties")) {
+            if (input == null) {
+                throw new IOException("Unable to find client.properties");
+            }
+            properties.load(input);
+        }
+
+        this.uploadChunkSizeBytes = Integer.parseInt(properties.getProperty("uploadChunkSizeBytes"));
+        this.bulkMaxInFlightImages = Integer.parseInt(properties.getProperty("bulkMaxInFlightImages"));
+        this.serverPort = Integer.parseInt(properties.getProperty("serverPort"));
+        this.lookupRefreshSeconds = Long.parseLong(properties.getProperty("lookupRefreshSeconds"));
+        this.loadBalancingPolicy = properties.getProperty("loadBalancingPolicy");
+    }
+
+    public int getUploadChunkSizeBytes() {
+        return uploadChunkSizeBytes;
+    }
+
+    public int getBulkMaxInFlightImages() {
+        return bulkMaxInFlightImages;
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public long getLookupRefreshSeconds() {
+        return lookupRefreshSeconds;
+    }
+
+    public String getLoadBalancingPolicy() {
+        return loadBalancingPolicy;
+    }
+}
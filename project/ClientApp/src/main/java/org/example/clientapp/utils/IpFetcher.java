@@ -2,6 +2,7 @@ package org.example.clientapp.utils;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
@@ -15,13 +16,15 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
-import java.util.Scanner;
 
 /**
  * Utility class for fetching IP addresses.
  */
 public class IpFetcher {
     private final String cfURL;
+    // The last lookup result and its ETag, reused while the function answers 304 Not Modified
+    private String lastETag;
+    private List<String> lastIps;
 
     public IpFetcher() throws IOException {
         Properties properties = new Properties();
@@ -37,41 +40,41 @@ public class IpFetcher {
 
     /**
      * Fetches IP addresses from a remote service.
+     * The ETag of the last result is sent back, so an unchanged result is not sent again.
      *
-     * @return A list of IP addresses.
+     * @return A list of IP addresses, empty if the lookup failed.
      */
-    public List<String> fetchIPAddresses() {
+    public synchronized List<String> fetchIPAddresses() {
         List<String> listips = new ArrayList<>();
         try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
             HttpGet reqGet = new HttpGet(cfURL);
+            if (lastETag != null) {
+                reqGet.setHeader("If-None-Match", lastETag);
+            }
             try (CloseableHttpResponse respGet = httpclient.execute(reqGet)) {
+                if (respGet.getStatusLine().getStatusCode() == 304) {
+                    EntityUtils.consume(respGet.getEntity());
+                    return new ArrayList<>(lastIps);
+                }
                 HttpEntity entity = respGet.getEntity();
                 String jstr = EntityUtils.toString(entity);
-                System.out.println("json string=" + jstr);
 
                 Type listType = new TypeToken<ArrayList<String>>() {}.getType();
-                listips = new Gson().fromJson(jstr, listType);
+                List<String> parsed = new Gson().fromJson(jstr, listType);
+                // Gson returns null for an empty body
+                if (parsed == null) {
+                    return listips;
+                }
+                listips = parsed;
+                Header etag = respGet.getFirstHeader("ETag");
+                if (respGet.getStatusLine().getStatusCode() == 200 && etag != null) {
+                    lastETag = etag.getValue();
+                    lastIps = new ArrayList<>(listips);
+                }
             }
         } catch (Exception ex) {
             System.out.println("Error fetching IP addresses: " + ex.getMessage());
         }
         return listips;
     }
-
-    /**
-     * Displays the list of IP addresses and allows the user to choose one.
-     *
-     * @param ips  The list of IP addresses.
-     * @param scan Scanner object for user input.
-     * @return The chosen IP address.
-     */
-    public static String chooseIPAddress(List<String> ips, Scanner scan) {
-        System.out.println("Available gRPC server IPs:");
-        for (int i = 0; i < ips.size(); i++) {
-            System.out.println(i + ": " + ips.get(i));
-        }
-        System.out.print("Choose an IP by entering its number: ");
-        int ipChoice = scan.nextInt();
-        return ips.get(ipChoice);
-    }
 }
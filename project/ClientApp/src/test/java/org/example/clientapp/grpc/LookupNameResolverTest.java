@@ -0,0 +1,120 @@
+package org.example.clientapp.grpc;
+
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import io.grpc.SynchronizationContext;
+import org.example.clientapp.utils.IpFetcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LookupNameResolverTest {
+    private static final int PORT = 8000;
+
+    private final SynchronizationContext syncContext = new SynchronizationContext((thread, e) -> {
+        throw new AssertionError(e);
+    });
+    private final RecordingListener listener = new RecordingListener();
+    private LookupNameResolver resolver;
+
+    @AfterEach
+    void tearDown() {
+        syncContext.execute(resolver::shutdown);
+    }
+
+    @Test
+    void refreshPicksUpNewServers() throws Exception {
+        start(List.of("10.0.0.1"), List.of("10.0.0.1", "10.0.0.2"));
+
+        assertEquals(List.of("10.0.0.1"), hosts(listener.next()));
+        syncContext.execute(resolver::refresh);
+        assertEquals(List.of("10.0.0.1", "10.0.0.2"), hosts(listener.next()));
+    }
+
+    @Test
+    void failedLookupKeepsLastServers() throws Exception {
+        start(List.of("10.0.0.1"), List.of());
+
+        assertEquals(List.of("10.0.0.1"), hosts(listener.next()));
+        syncContext.execute(resolver::refresh);
+        // Neither new addresses nor an error replace the servers already resolved
+        assertNull(listener.events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void failedFirstLookupIsReported() throws Exception {
+        start(List.of());
+
+        Object event = listener.next();
+        assertEquals(Status.Code.UNAVAILABLE, ((Status) event).getCode());
+    }
+
+    @SafeVarargs
+    private void start(List<String>... lookups) throws IOException {
+        resolver = new LookupNameResolver("servers", new StubIpFetcher(lookups), PORT, 3600, syncContext);
+        syncContext.execute(() -> resolver.start(listener));
+    }
+
+    private static List<String> hosts(Object event) {
+        List<String> hosts = new ArrayList<>();
+        for (EquivalentAddressGroup group : ((NameResolver.ResolutionResult) event).getAddresses()) {
+            InetSocketAddress address = (InetSocketAddress) group.getAddresses().get(0);
+            assertEquals(PORT, address.getPort());
+            hosts.add(address.getHostString());
+        }
+        return hosts;
+    }
+
+    /**
+     * Answers each lookup with the next of the given results, then with no server.
+     */
+    private static class StubIpFetcher extends IpFetcher {
+        private final BlockingQueue<List<String>> lookups = new LinkedBlockingQueue<>();
+
+        @SafeVarargs
+        private StubIpFetcher(List<String>... lookups) throws IOException {
+            this.lookups.addAll(List.of(lookups));
+        }
+
+        @Override
+        public List<String> fetchIPAddresses() {
+            List<String> ips = lookups.poll();
+            return ips == null ? new ArrayList<>() : new ArrayList<>(ips);
+        }
+    }
+
+    /**
+     * Records the results and errors of the resolver in the order they are reported.
+     */
+    private static class RecordingListener extends NameResolver.Listener2 {
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onResult(NameResolver.ResolutionResult resolutionResult) {
+            events.add(resolutionResult);
+        }
+
+        @Override
+        public void onError(Status error) {
+            events.add(error);
+        }
+
+        private Object next() throws InterruptedException {
+            Object event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event);
+            return event;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.example;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.compute.v1.Instance;
+import com.google.cloud.compute.v1.ManagedInstance;
+
+import java.util.List;
+
+/**
+ * The Compute Engine calls made by the {@link LookupFunction}, so a fake can stand in for Compute Engine.
+ */
+public interface ComputeInstances {
+
+    /**
+     * Lists the instances of a managed instance group.
+     *
+     * @param project the project ID in Google Cloud Platform.
+     * @param zone    the zone of the instance group.
+     * @param group   the name of the managed instance group.
+     * @return the managed instances of the group.
+     */
+    List<ManagedInstance> listManagedInstances(String project, String zone, String group);
+
+    /**
+     * Gets an instance.
+     *
+     * @param project  the project ID in Google Cloud Platform.
+     * @param zone     the zone of the instance.
+     * @param instance the name of the instance.
+     * @return a future of the instance.
+     */
+    ApiFuture<Instance> getInstanceAsync(String project, String zone, String instance);
+}
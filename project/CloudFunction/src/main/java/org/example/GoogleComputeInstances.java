@@ -0,0 +1,49 @@
+package org.example;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.compute.v1.GetInstanceRequest;
+import com.google.cloud.compute.v1.Instance;
+import com.google.cloud.compute.v1.InstanceGroupManagersClient;
+import com.google.cloud.compute.v1.InstancesClient;
+import com.google.cloud.compute.v1.ManagedInstance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ComputeInstances} backed by Compute Engine clients created once and reused across invocations.
+ */
+public class GoogleComputeInstances implements ComputeInstances {
+    private final InstanceGroupManagersClient groupManagersClient;
+    private final InstancesClient instancesClient;
+
+    /**
+     * Constructs a GoogleComputeInstances with the default credentials.
+     *
+     * @throws IOException if the clients cannot be created.
+     */
+    public GoogleComputeInstances() throws IOException {
+        this.groupManagersClient = InstanceGroupManagersClient.create();
+        this.instancesClient = InstancesClient.create();
+    }
+
+    @Override
+    public List<ManagedInstance> listManagedInstances(String project, String zone, String group) {
+        List<ManagedInstance> instances = new ArrayList<>();
+        for (ManagedInstance instance : groupManagersClient.listManagedInstances(project, zone, group).iterateAll()) {
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    @Override
+    public ApiFuture<Instance> getInstanceAsync(String project, String zone, String instance) {
+        GetInstanceRequest request = GetInstanceRequest.newBuilder()
+                .setProject(project)
+                .setZone(zone)
+                .setInstance(instance)
+                .build();
+        return instancesClient.getCallable().futureCall(request);
+    }
+}
@@ -1,22 +1,78 @@
 package org.example;
 
-import com.google.cloud.compute.v1.*;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.compute.v1.Instance;
+import com.google.cloud.compute.v1.ManagedInstance;
 import com.google.cloud.functions.HttpRequest;
 import com.google.cloud.functions.HttpResponse;
 import com.google.cloud.functions.HttpFunction;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.Gson;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * Cloud Function that retrieves IP addresses of VM instances from a specified instance group in Google Cloud Platform.
+ * The Compute Engine clients are kept across invocations, and each result is cached for a few seconds and tagged
+ * with an ETag, so clients polling for changes get a 304 Not Modified while the group is unchanged.
+ * The cache is keyed by the query parameters of the callers, so it holds a bounded number of groups.
  */
 public class LookupFunction implements HttpFunction {
+    private static final long CACHE_TTL_MILLIS = 5000;
+    private static final long CACHE_MAX_GROUPS = 100;
+    private static final String RUNNING = "RUNNING";
+
+    private final Cache<String, Lookup> cache;
+    private ComputeInstances computeInstances;
+
+    /**
+     * Constructs a LookupFunction using Compute Engine, as done by the Functions Framework.
+     */
+    public LookupFunction() {
+        this.cache = newCache(Ticker.systemTicker());
+    }
+
+    /**
+     * Constructs a LookupFunction using the given Compute Engine calls and clock.
+     *
+     * @param computeInstances the Compute Engine calls.
+     * @param clock            the current time in milliseconds.
+     */
+    LookupFunction(ComputeInstances computeInstances, LongSupplier clock) {
+        this.computeInstances = computeInstances;
+        this.cache = newCache(new Ticker() {
+            @Override
+            public long read() {
+                return TimeUnit.MILLISECONDS.toNanos(clock.getAsLong());
+            }
+        });
+    }
+
+    private static Cache<String, Lookup> newCache(Ticker ticker) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(CACHE_MAX_GROUPS)
+                .expireAfterWrite(CACHE_TTL_MILLIS, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
 
     /**
      * Handles HTTP requests and retrieves IP addresses of VM instances from a specified instance group.
+     * Answers 304 Not Modified when the If-None-Match header holds the ETag of the current result.
      *
      * @param request  the HTTP request containing query parameters.
      * @param response the HTTP response to write the result to.
@@ -34,37 +90,128 @@ public class LookupFunction implements HttpFunction {
             return;
         }
 
+        Lookup lookup;
         try {
-            List<String> ips = getInstanceGroupIps(zone, project, group);
-            response.setStatusCode(200);
-            response.getWriter().write(new Gson().toJson(ips));
+            lookup = lookup(zone, project, group);
         } catch (IOException e) {
             response.setStatusCode(500);
             response.getWriter().write("{\"error\": \"" + e.getMessage() + "\"}");
+            return;
+        }
+
+        response.appendHeader("ETag", lookup.etag);
+        response.appendHeader("Cache-Control", "max-age=" + CACHE_TTL_MILLIS / 1000);
+        if (matches(request.getFirstHeader("If-None-Match").orElse(""), lookup.etag)) {
+            response.setStatusCode(304);
+            return;
+        }
+        response.setStatusCode(200);
+        response.setContentType("application/json");
+        response.getWriter().write(lookup.json);
+    }
+
+    /**
+     * Returns the cached IP addresses of the group, listing them again once the cached result has expired.
+     * Concurrent requests for the same group share one listing, and failed listings are not cached.
+     */
+    private Lookup lookup(String zone, String project, String group) throws IOException {
+        try {
+            return cache.get(project + "/" + zone + "/" + group, () -> {
+                String json = new Gson().toJson(getInstanceGroupIps(zone, project, group));
+                return new Lookup(json, etagOf(json));
+            });
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        } catch (UncheckedExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
         }
     }
 
     /**
-     * Retrieves the IP addresses of VM instances in the specified instance group.
+     * Retrieves the IP addresses of the running VM instances in the specified managed instance group.
+     * Only the instances of the group are listed, and the running ones are then fetched in parallel.
      *
      * @param zone    the zone of the instance group.
      * @param project the project ID in Google Cloud Platform.
      * @param group   the name of the instance group.
-     * @return a list of IP addresses of the VM instances.
+     * @return the sorted list of IP addresses of the VM instances.
      * @throws IOException if any error occurs while fetching the IP addresses.
      */
     private List<String> getInstanceGroupIps(String zone, String project, String group) throws IOException {
-        List<String> ips = new ArrayList<>();
+        ComputeInstances compute = getComputeInstances();
         System.out.println("==== Listing IPs of running VM from na instance group: " + group);
-        try (InstancesClient client = InstancesClient.create()) {
-            for (Instance curInst : client.list(project, zone).iterateAll()) {
-                if (curInst.getName().contains(group)) {
-                    String ip = curInst.getNetworkInterfaces(0).getAccessConfigs(0).getNatIP();
-                    ips.add(ip);
+        List<ApiFuture<Instance>> running = new ArrayList<>();
+        for (ManagedInstance managedInstance : compute.listManagedInstances(project, zone, group)) {
+            if (RUNNING.equals(managedInstance.getInstanceStatus())) {
+                // The instance is given as a URL ending with its name
+                String url = managedInstance.getInstance();
+                running.add(compute.getInstanceAsync(project, zone, url.substring(url.lastIndexOf('/') + 1)));
+            }
+        }
+        List<String> ips = new ArrayList<>();
+        try {
+            for (Instance instance : ApiFutures.allAsList(running).get()) {
+                if (instance.getNetworkInterfacesCount() > 0
+                        && instance.getNetworkInterfaces(0).getAccessConfigsCount() > 0) {
+                    String ip = instance.getNetworkInterfaces(0).getAccessConfigs(0).getNatIP();
+                    if (!ip.isEmpty()) {
+                        ips.add(ip);
+                    }
                 }
             }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching the instances", e);
         }
+        // Sorted, so the same instances always give the same ETag
+        Collections.sort(ips);
         return ips;
     }
 
-}
\ No newline at end of file
+    private synchronized ComputeInstances getComputeInstances() throws IOException {
+        if (computeInstances == null) {
+            computeInstances = new GoogleComputeInstances();
+        }
+        return computeInstances;
+    }
+
+    private static String etagOf(String json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Checks an If-None-Match header, which holds a list of ETags, possibly weak, or *.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The IP addresses of a group as sent to the clients, with their ETag.
+     */
+    private static class Lookup {
+        private final String json;
+        private final String etag;
+
+        private Lookup(String json, String etag) {
+            this.json = json;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.compute.v1.AccessConfig;
+import com.google.cloud.compute.v1.Instance;
+import com.google.cloud.compute.v1.ManagedInstance;
+import com.google.cloud.compute.v1.NetworkInterface;
+import com.google.cloud.functions.HttpRequest;
+import com.google.cloud.functions.HttpResponse;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LookupFunctionTest {
+    private final FakeComputeInstances compute = new FakeComputeInstances();
+    private long now;
+    private final LookupFunction function = new LookupFunction(compute, () -> now);
+
+    @Test
+    void onlyRunningInstancesAreLookedUp() throws Exception {
+        compute.add("vm-2", "RUNNING", "10.0.0.2");
+        compute.add("vm-3", "STOPPING", "10.0.0.3");
+        compute.add("vm-1", "RUNNING", "10.0.0.1");
+
+        Call call = call(null);
+
+        assertEquals(200, call.status);
+        assertEquals("[\"10.0.0.1\",\"10.0.0.2\"]", call.body);
+        assertEquals(List.of("vm-2", "vm-1"), compute.fetched);
+    }
+
+    @Test
+    void resultIsCachedUntilItExpires() throws Exception {
+        compute.add("vm-1", "RUNNING", "10.0.0.1");
+
+        call(null);
+        now = 4000;
+        compute.add("vm-2", "RUNNING", "10.0.0.2");
+        assertEquals("[\"10.0.0.1\"]", call(null).body);
+        assertEquals(1, compute.listings);
+
+        now = 6000;
+        assertEquals("[\"10.0.0.1\",\"10.0.0.2\"]", call(null).body);
+        assertEquals(2, compute.listings);
+    }
+
+    @Test
+    void matchingETagAnswersNotModified() throws Exception {
+        compute.add("vm-1", "RUNNING", "10.0.0.1");
+        String etag = call(null).etag;
+
+        Call unchanged = call(etag);
+        assertEquals(304, unchanged.status);
+        assertEquals("", unchanged.body);
+        assertEquals(etag, unchanged.etag);
+
+        now = 6000;
+        compute.add("vm-2", "RUNNING", "10.0.0.2");
+        Call changed = call(etag);
+        assertEquals(200, changed.status);
+        assertEquals("[\"10.0.0.1\",\"10.0.0.2\"]", changed.body);
+    }
+
+    @Test
+    void failedLookupIsNotCached() throws Exception {
+        compute.add("vm-1", "RUNNING", "10.0.0.1");
+        compute.failures = 1;
+
+        Call failed = call(null);
+        assertEquals(500, failed.status);
+        assertNull(failed.etag);
+        Call retried = call(null);
+
+        assertEquals(200, retried.status);
+        assertEquals("[\"10.0.0.1\"]", retried.body);
+        assertEquals(2, compute.listings);
+    }
+
+    @Test
+    void missingParameterIsRejected() throws Exception {
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getFirstQueryParameter(anyString())).thenReturn(Optional.empty());
+        HttpResponse response = mock(HttpResponse.class);
+        when(response.getWriter()).thenReturn(new BufferedWriter(new StringWriter()));
+
+        function.service(request, response);
+
+        verify(response).setStatusCode(400);
+        verify(response, never()).appendHeader(eq("ETag"), anyString());
+        assertEquals(0, compute.listings);
+    }
+
+    private Call call(String ifNoneMatch) throws Exception {
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getFirstQueryParameter("zone")).thenReturn(Optional.of("europe-west1-b"));
+        when(request.getFirstQueryParameter("prjid")).thenReturn(Optional.of("project"));
+        when(request.getFirstQueryParameter("group")).thenReturn(Optional.of("servers"));
+        when(request.getFirstHeader("If-None-Match")).thenReturn(Optional.ofNullable(ifNoneMatch));
+        HttpResponse response = mock(HttpResponse.class);
+        StringWriter body = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(body);
+        when(response.getWriter()).thenReturn(writer);
+
+        function.service(request, response);
+        writer.flush();
+
+        ArgumentCaptor<Integer> status = ArgumentCaptor.forClass(Integer.class);
+        verify(response).setStatusCode(status.capture());
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        // Failed lookups carry no ETag
+        verify(response, atMost(1)).appendHeader(eq("ETag"), etag.capture());
+        return new Call(status.getValue(), body.toString(), etag.getAllValues().isEmpty() ? null : etag.getValue());
+    }
+
+    /**
+     * The status, body and ETag of an answer of the function.
+     */
+    private static class Call {
+        private final int status;
+        private final String body;
+        private final String etag;
+
+        private Call(int status, String body, String etag) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * A managed instance group held in memory, recording the calls made to it.
+     */
+    private static class FakeComputeInstances implements ComputeInstances {
+        private final List<ManagedInstance> group = new ArrayList<>();
+        private final Map<String, Instance> instances = new HashMap<>();
+        private final List<String> fetched = new ArrayList<>();
+        private int listings;
+        private int failures;
+
+        private void add(String name, String status, String ip) {
+            group.add(ManagedInstance.newBuilder()
+                    .setInstance("https://www.googleapis.com/compute/v1/projects/project/zones/europe-west1-b/instances/" + name)
+                    .setInstanceStatus(status)
+                    .build());
+            instances.put(name, Instance.newBuilder()
+                    .setName(name)
+                    .addNetworkInterfaces(NetworkInterface.newBuilder()
+                            .addAccessConfigs(AccessConfig.newBuilder().setNatIP(ip)))
+                    .build());
+        }
+
+        @Override
+        public synchronized List<ManagedInstance> listManagedInstances(String project, String zone, String group) {
+            listings++;
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("Compute Engine unavailable");
+            }
+            return new ArrayList<>(this.group);
+        }
+
+        @Override
+        public synchronized ApiFuture<Instance> getInstanceAsync(String project, String zone, String instance) {
+            fetched.add(instance);
+            return ApiFutures.immediateFuture(instances.get(instance));
+        }
+    }
+}
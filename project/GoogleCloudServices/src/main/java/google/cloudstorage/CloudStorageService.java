@@ -1,9 +1,6 @@
 package google.cloudstorage;
 
-import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.*;
-import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
@@ -17,32 +14,29 @@ public class CloudStorageService {
      * Constructs a CloudStorageService and initializes the Google Cloud Storage client.
      */
     public CloudStorageService() {
-        storage = StorageOptions.getDefaultInstance().getService();
+        this(StorageOptions.getDefaultInstance().getService());
     }
 
     /**
-     * Stores image bytes in a Google Cloud Storage bucket. If the blob does not exist, it creates a new one.
-     * Appends new image data to existing data in the blob.
+     * Constructs a CloudStorageService over the given storage client.
      *
-     * @param imageData the image data to store.
-     * @param blobName  the name of the blob.
-     * @return the media link to the stored blob.
+     * @param storage the storage client to use.
      */
-    public String storeImageBytes(byte[] imageData, String blobName) {
+    public CloudStorageService(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Opens a resumable upload for a new blob in the Google Cloud Storage bucket.
+     * Every chunk appended to the returned session is streamed into the same upload.
+     *
+     * @param blobName the name of the blob.
+     * @return the upload session for the blob.
+     */
+    public UploadSession openUpload(String blobName) {
         BlobId blobId = BlobId.of(bucketName, blobName);
-        Blob blob = storage.get(blobId);
-        if (blob == null) {
-            BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
-            blob = storage.create(blobInfo);
-        }
-        byte[] existingBytes = blob.getContent();
-        byte[] newBytes = concatenateBytes(existingBytes, imageData);
-        try (WriteChannel writer = blob.writer()) {
-            writer.write(ByteBuffer.wrap(newBytes));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        return blob.getMediaLink();
+        BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
+        return new UploadSession(storage, blobId, storage.writer(blobInfo));
     }
 
     /**
@@ -55,17 +49,12 @@ public class CloudStorageService {
     }
 
     /**
-     * Concatenates two byte arrays into a single byte array.
+     * Returns the name of the bucket where images are stored.
      *
-     * @param existingBytes the existing byte array.
-     * @param newBytes      the new byte array to append.
-     * @return a concatenated byte array.
+     * @return the bucket name.
      */
-    private byte[] concatenateBytes(byte[] existingBytes, byte[] newBytes) {
-        byte[] result = new byte[existingBytes.length + newBytes.length];
-        System.arraycopy(existingBytes, 0, result, 0, existingBytes.length);
-        System.arraycopy(newBytes, 0, result, existingBytes.length, newBytes.length);
-        return result;
+    public String getBucketName() {
+        return bucketName;
     }
 
 }
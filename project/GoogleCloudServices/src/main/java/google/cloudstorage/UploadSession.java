@@ -0,0 +1,121 @@
+package google.cloudstorage;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import google.metrics.CallTimer;
+import google.metrics.Counter;
+import google.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A single resumable upload to Google Cloud Storage.
+ * Chunks are written straight through to the underlying {@link WriteChannel}, so the blob is never
+ * downloaded or rewritten while it is being uploaded.
+ */
+public class UploadSession {
+    private static final CallTimer APPEND = MetricsRegistry.getDefault()
+            .timer("storage_write", "Cloud Storage writes", "operation", "append");
+    private static final CallTimer COMMIT = MetricsRegistry.getDefault()
+            .timer("storage_write", "Cloud Storage writes", "operation", "commit");
+    private static final Counter WRITTEN_BYTES = MetricsRegistry.getDefault()
+            .counter("storage_written_bytes_total", "Bytes written to Cloud Storage");
+
+    private final Storage storage;
+    private final BlobId blobId;
+    private WriteChannel writer;
+
+    /**
+     * Constructs an UploadSession over an already opened write channel.
+     *
+     * @param storage the storage client used to read the blob metadata on commit.
+     * @param blobId  the id of the blob being uploaded.
+     * @param writer  the resumable write channel for the blob.
+     */
+    UploadSession(Storage storage, BlobId blobId, WriteChannel writer) {
+        this.storage = storage;
+        this.blobId = blobId;
+        this.writer = writer;
+    }
+
+    /**
+     * Appends a chunk of data to the upload.
+     *
+     * @param chunk the data to append.
+     * @throws IOException if the write fails.
+     */
+    public void append(ByteBuffer chunk) throws IOException {
+        ensureOpen();
+        WRITTEN_BYTES.add(chunk.remaining());
+        long start = System.nanoTime();
+        try {
+            while (chunk.hasRemaining()) {
+                writer.write(chunk);
+            }
+            APPEND.stop(start, false);
+        } catch (IOException e) {
+            APPEND.stop(start, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Finalizes the upload, making the blob visible in the bucket.
+     *
+     * @return the media link to the stored blob.
+     * @throws IOException if the upload cannot be finalized.
+     */
+    public String commit() throws IOException {
+        ensureOpen();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            writer.close();
+            Blob blob = storage.get(blobId);
+            if (blob == null) {
+                throw new IOException("Blob " + blobId.getName() + " not found after upload.");
+            }
+            failed = false;
+            return blob.getMediaLink();
+        } finally {
+            writer = null;
+            COMMIT.stop(start, failed);
+        }
+    }
+
+    /**
+     * Abandons the upload. The write channel is closed to release its buffer, and the partial blob
+     * this finalizes is deleted.
+     */
+    public void abort() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            storage.delete(blobId);
+        } catch (IOException | RuntimeException e) {
+            // The upload already failed, so the session only has to be released
+        } finally {
+            writer = null;
+        }
+    }
+
+    /**
+     * Returns the name of the blob being uploaded.
+     *
+     * @return the blob name.
+     */
+    public String getBlobName() {
+        return blobId.getName();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (writer == null) {
+            throw new IOException("Upload session for " + blobId.getName() + " is already closed.");
+        }
+    }
+}
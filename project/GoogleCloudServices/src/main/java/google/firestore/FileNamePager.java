@@ -0,0 +1,38 @@
+package google.firestore;
+
+import com.google.api.core.ApiFuture;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads the file names answering an image query one page at a time.
+ * A pager is not thread-safe, and a page must be read only once the previous one has completed.
+ */
+public interface FileNamePager {
+
+    /**
+     * Returns whether more pages may be available.
+     *
+     * @return false once the last page has been read.
+     */
+    boolean hasNext();
+
+    /**
+     * Reads the next page of file names.
+     *
+     * @return the file names of the page, empty once the query is exhausted.
+     * @throws ExecutionException   if an error occurs during Firestore operation.
+     * @throws InterruptedException if the operation is interrupted.
+     */
+    default List<String> nextPage() throws ExecutionException, InterruptedException {
+        return nextPageAsync().get();
+    }
+
+    /**
+     * Reads the next page of file names without waiting for Firestore.
+     *
+     * @return a future holding the file names of the page, empty once the query is exhausted.
+     */
+    ApiFuture<List<String>> nextPageAsync();
+}
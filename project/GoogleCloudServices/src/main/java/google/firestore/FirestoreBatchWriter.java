@@ -0,0 +1,230 @@
+package google.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import google.firestore.models.ImageInformation;
+import google.firestore.models.LogEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups Firestore writes into batched commits.
+ * A batch is committed when it holds the maximum number of writes or when its oldest write has
+ * waited the maximum delay, whichever comes first. The future of each write completes when the
+ * commit carrying it does. A maximum of 1 write disables batching, each write is then committed on its own.
+ * <p>
+ * Label index postings are batched apart from the other writes, once the image they index is committed,
+ * so a failed index write never fails the save of an image or of the other writes of its batch.
+ */
+public class FirestoreBatchWriter implements AutoCloseable {
+    /**
+     * Maximum number of writes Firestore accepts in a single commit.
+     */
+    public static final int MAX_WRITES_PER_COMMIT = 500;
+
+    private final Firestore db;
+    private final CollectionReference logsCollection;
+    private final CollectionReference characteristicsCollection;
+    private final LabelIndex labelIndex;
+    private final int maxWrites;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Lane writes = new Lane();
+    private final Lane indexWrites = new Lane();
+    private boolean closed;
+
+    /**
+     * Constructs a FirestoreBatchWriter. Instances are obtained from {@link FirestoreService#newBatchWriter}.
+     *
+     * @param db                        the Firestore database.
+     * @param logsCollection            the collection of log entries.
+     * @param characteristicsCollection the collection of image details.
+     * @param labelIndex                the label index updated with each image.
+     * @param maxWrites                 the maximum number of writes per commit.
+     * @param maxDelayMillis            the maximum time in milliseconds a write waits for its commit.
+     */
+    FirestoreBatchWriter(Firestore db, CollectionReference logsCollection, CollectionReference characteristicsCollection,
+                         LabelIndex labelIndex, int maxWrites, long maxDelayMillis) {
+        this.db = db;
+        this.logsCollection = logsCollection;
+        this.characteristicsCollection = characteristicsCollection;
+        this.labelIndex = labelIndex;
+        this.maxWrites = Math.min(maxWrites, MAX_WRITES_PER_COMMIT);
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Adds a log entry to the next batched commit, keyed by its request ID.
+     *
+     * @param logEntry the log entry to save.
+     * @return a future completed when the log entry is committed.
+     */
+    public ApiFuture<Void> saveLog(LogEntry logEntry) {
+        return set(logsCollection.document(FirestoreService.imageDocumentId(logEntry.getRequestId())), logEntry);
+    }
+
+    /**
+     * Adds image information to the next batched commit, keyed by its request ID.
+     * Its label index postings are added to a later commit once the image is committed.
+     *
+     * @param imageInfo the image information to save.
+     * @return a future completed when the image information is committed.
+     */
+    public ApiFuture<Void> saveImageInfo(ImageInformation imageInfo) {
+        DocumentReference document = characteristicsCollection.document(FirestoreService.imageDocumentId(imageInfo.getRequestId()));
+        ApiFuture<Void> saved = set(document, imageInfo);
+        ApiFutures.addCallback(saved, new ApiFutureCallback<Void>() {
+            @Override
+            public void onFailure(Throwable t) {
+                // The image is saved again when its message is redelivered, and indexed then
+            }
+
+            @Override
+            public void onSuccess(Void result) {
+                int postings = LabelIndex.writesFor(imageInfo);
+                if (postings > 0) {
+                    LabelIndex.logFailure(indexWrites.enqueue(postings, batch -> labelIndex.addToBatch(batch, imageInfo)),
+                            imageInfo);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return saved;
+    }
+
+    /**
+     * Adds a document write to the next batched commit.
+     *
+     * @param document the document to write.
+     * @param data     the data of the document.
+     * @return a future completed when the document is committed.
+     */
+    public ApiFuture<Void> set(DocumentReference document, Object data) {
+        return writes.enqueue(1, batch -> batch.set(document, data));
+    }
+
+    private void commit(Batch batch) {
+        ApiFutures.addCallback(FirestoreService.BATCH_COMMIT_TIMER.time(batch.writeBatch.commit()), new ApiFutureCallback<List<WriteResult>>() {
+            @Override
+            public void onFailure(Throwable t) {
+                for (SettableApiFuture<Void> result : batch.results) {
+                    result.setException(t);
+                }
+            }
+
+            @Override
+            public void onSuccess(List<WriteResult> writeResults) {
+                for (SettableApiFuture<Void> result : batch.results) {
+                    result.set(null);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Commits the batches being filled and stops the writer. Postings of images whose commit completes
+     * afterwards are committed at once, without waiting for a batch.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writes.flush();
+        indexWrites.flush();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * A sequence of batches, each committed once full or once its oldest write has waited the maximum delay.
+     */
+    private class Lane {
+        private Batch current;
+
+        /**
+         * Adds a group of writes to the next batched commit. The writes of a group are always
+         * committed together.
+         *
+         * @param writes the number of writes the group adds to the batch.
+         * @param group  adds the writes to the batch.
+         * @return a future completed when the group is committed.
+         */
+        private ApiFuture<Void> enqueue(int writes, Consumer<WriteBatch> group) {
+            SettableApiFuture<Void> result = SettableApiFuture.create();
+            List<Batch> full = new ArrayList<>();
+            synchronized (FirestoreBatchWriter.this) {
+                // Firestore rejects commits over its write limit, so start a new batch rather than overflow
+                if (current != null && current.writes + writes > MAX_WRITES_PER_COMMIT) {
+                    full.add(current);
+                    current = null;
+                }
+                if (current == null) {
+                    Batch batch = new Batch(db.batch());
+                    current = batch;
+                    if (!closed) {
+                        scheduler.schedule(() -> commitIfCurrent(batch), maxDelayMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+                group.accept(current.writeBatch);
+                current.writes += writes;
+                current.results.add(result);
+                if (current.writes >= maxWrites || closed) {
+                    full.add(current);
+                    current = null;
+                }
+            }
+            for (Batch batch : full) {
+                commit(batch);
+            }
+            return result;
+        }
+
+        /**
+         * Commits the given batch if it is still the one being filled.
+         *
+         * @param batch the batch whose delay expired.
+         */
+        private void commitIfCurrent(Batch batch) {
+            synchronized (FirestoreBatchWriter.this) {
+                if (current != batch) {
+                    return;
+                }
+                current = null;
+            }
+            commit(batch);
+        }
+
+        private void flush() {
+            Batch batch;
+            synchronized (FirestoreBatchWriter.this) {
+                batch = current;
+                current = null;
+            }
+            if (batch != null) {
+                commit(batch);
+            }
+        }
+    }
+
+    private static class Batch {
+        private final WriteBatch writeBatch;
+        private final List<SettableApiFuture<Void>> results = new ArrayList<>();
+        private int writes;
+
+        private Batch(WriteBatch writeBatch) {
+            this.writeBatch = writeBatch;
+        }
+    }
+}
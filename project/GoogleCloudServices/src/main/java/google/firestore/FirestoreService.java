@@ -1,28 +1,57 @@
 package google.firestore;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
+import com.google.common.util.concurrent.MoreExecutors;
 import google.firestore.models.ImageInformation;
 import google.firestore.models.LogEntry;
+import google.firestore.models.RequestRate;
 import google.firestore.models.TranslationInformation;
 import google.firestore.models.VisionInformation;
+import google.metrics.CallTimer;
+import google.metrics.MetricsRegistry;
 
 import java.io.FileInputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.concurrent.ExecutionException;
 
 /**
  * Service class for handling operations related to Google Firestore.
  */
 public class FirestoreService {
+    // Resolved once per operation, so timing a call neither renders its labels nor looks up its metrics
+    static final CallTimer BATCH_COMMIT_TIMER = timer("batchCommit");
+    static final CallTimer GET_IMAGE_FILE_NAMES_TIMER = timer("getImageFileNames");
+    static final CallTimer GET_IMAGE_INFO_TIMER = timer("getImageInfo");
+    static final CallTimer GET_REQUEST_ID_BY_CONTENT_HASH_TIMER = timer("getRequestIdByContentHash");
+    static final CallTimer GET_REQUEST_RATES_TIMER = timer("getRequestRates");
+    static final CallTimer IMAGE_FILE_NAME_PAGE_TIMER = timer("imageFileNamePage");
+    static final CallTimer INCREMENT_REQUEST_COUNTS_TIMER = timer("incrementRequestCounts");
+    static final CallTimer LABEL_INDEX_PAGE_TIMER = timer("labelIndexPage");
+    static final CallTimer LABEL_INDEX_WRITE_TIMER = timer("labelIndexWrite");
+    static final CallTimer SAVE_CONTENT_HASH_TIMER = timer("saveContentHash");
+    static final CallTimer SAVE_IMAGE_INFO_TIMER = timer("saveImageInfo");
+    static final CallTimer SAVE_LOG_TIMER = timer("saveLog");
 
+    private final Firestore db;
     private final CollectionReference logsCollection;
     private final CollectionReference characteristicsCollection;
+    private final CollectionReference contentHashesCollection;
+    private final LabelIndex labelIndex;
 
     /**
      * Constructs a FirestoreService and initializes Firestore collections for logs and image details.
@@ -40,37 +69,155 @@ public class FirestoreService {
             throw new IllegalStateException("Failed to read credentials file.");
         }
 
-        Firestore db = FirestoreOptions
+        this.db = FirestoreOptions
                 .newBuilder()
                 .setDatabaseId("db-name")
                 .setCredentials(credentials)
                 .build().getService();
         this.logsCollection = db.collection("Logs");
         this.characteristicsCollection = db.collection("ImagesDetails");
+        this.contentHashesCollection = db.collection("ContentHashes");
+        this.labelIndex = new LabelIndex(db, db.collection("LabelPostings"));
+    }
+
+    /**
+     * Returns the Firestore client, for the services keeping their own collections.
+     *
+     * @return the Firestore client.
+     */
+    public Firestore getDb() {
+        return db;
     }
 
     /**
      * Saves a log entry to the Firestore logs collection.
+     * The document is keyed by the request ID, so saving the same entry again overwrites it.
      *
      * @param logEntry the log entry to save.
      * @throws ExecutionException if an error occurs during execution.
      * @throws InterruptedException if the operation is interrupted.
      */
     public void saveLog(LogEntry logEntry) throws ExecutionException, InterruptedException {
-        ApiFuture<DocumentReference> future = logsCollection.add(logEntry);
-        future.get();
+        saveLogAsync(logEntry).get();
     }
 
     /**
      * Saves image information to the Firestore characteristics collection.
+     * The document is keyed by the request ID, so saving the same request again overwrites it.
      *
      * @param imageInfo the image information to save.
      * @throws ExecutionException   if an error occurs during Firestore operation.
      * @throws InterruptedException if the operation is interrupted.
      */
     public void saveImageInfo(ImageInformation imageInfo) throws ExecutionException, InterruptedException {
-        ApiFuture<DocumentReference> future = characteristicsCollection.add(imageInfo);
-        future.get();
+        saveImageInfoAsync(imageInfo).get();
+    }
+
+    /**
+     * Saves a log entry to the Firestore logs collection without waiting for the write.
+     * The document is keyed by the request ID, so saving the same entry again overwrites it.
+     *
+     * @param logEntry the log entry to save.
+     * @return a future holding the result of the write.
+     */
+    public ApiFuture<WriteResult> saveLogAsync(LogEntry logEntry) {
+        return SAVE_LOG_TIMER.time(logsCollection.document(imageDocumentId(logEntry.getRequestId())).set(logEntry));
+    }
+
+    /**
+     * Adds request counts to the rollup documents of their time buckets in one commit, without waiting for it.
+     * Counts are added with an increment, so several writers can roll up into the same buckets. A single commit
+     * is all-or-nothing, so a caller can retry failed counts without adding any of them twice.
+     *
+     * @param granularity the granularity of the buckets.
+     * @param counts      the number of requests to add, by bucket start, for at most
+     *                    {@link FirestoreBatchWriter#MAX_WRITES_PER_COMMIT} buckets.
+     * @return a future holding the results of the writes.
+     */
+    public ApiFuture<List<WriteResult>> incrementRequestCountsAsync(RollupGranularity granularity, Map<Instant, Long> counts) {
+        if (counts.size() > FirestoreBatchWriter.MAX_WRITES_PER_COMMIT) {
+            throw new IllegalArgumentException("At most " + FirestoreBatchWriter.MAX_WRITES_PER_COMMIT
+                    + " buckets can be added in one commit, got " + counts.size());
+        }
+        CollectionReference rollups = db.collection(granularity.getCollection());
+        WriteBatch batch = db.batch();
+        for (Map.Entry<Instant, Long> count : counts.entrySet()) {
+            Instant bucketStart = granularity.bucketOf(count.getKey());
+            Map<String, Object> rollup = new HashMap<>();
+            rollup.put("bucketStart", Timestamp.ofTimeSecondsAndNanos(bucketStart.getEpochSecond(), 0));
+            rollup.put("count", FieldValue.increment(count.getValue()));
+            batch.set(rollups.document(bucketStart.toString()), rollup, SetOptions.merge());
+        }
+        return INCREMENT_REQUEST_COUNTS_TIMER.time(batch.commit());
+    }
+
+    /**
+     * Retrieves the request rates of a time range from the rollup documents, without reading the raw log.
+     * Buckets without requests have no document and are left out.
+     *
+     * @param granularity the granularity of the buckets.
+     * @param start       the start of the range.
+     * @param end         the end of the range, excluded.
+     * @return the request rates of the buckets starting in the range, in time order.
+     * @throws ExecutionException   if an error occurs during Firestore operation.
+     * @throws InterruptedException if the operation is interrupted.
+     */
+    public List<RequestRate> getRequestRates(RollupGranularity granularity, Instant start, Instant end)
+            throws ExecutionException, InterruptedException {
+        return getRequestRatesAsync(granularity, start, end).get();
+    }
+
+    /**
+     * Retrieves the request rates of a time range from the rollup documents without waiting for the read.
+     *
+     * @param granularity the granularity of the buckets.
+     * @param start       the start of the range.
+     * @param end         the end of the range, excluded.
+     * @return a future holding the request rates of the buckets starting in the range, in time order.
+     */
+    public ApiFuture<List<RequestRate>> getRequestRatesAsync(RollupGranularity granularity, Instant start, Instant end) {
+        Query query = db.collection(granularity.getCollection())
+                .whereGreaterThanOrEqualTo("bucketStart", Timestamp.ofTimeSecondsAndNanos(start.getEpochSecond(), start.getNano()))
+                .whereLessThan("bucketStart", Timestamp.ofTimeSecondsAndNanos(end.getEpochSecond(), end.getNano()))
+                .orderBy("bucketStart");
+        return ApiFutures.transform(GET_REQUEST_RATES_TIMER.time(query.get()), snapshot -> {
+            List<RequestRate> rates = new ArrayList<>();
+            for (QueryDocumentSnapshot document : snapshot.getDocuments()) {
+                Long count = document.getLong("count");
+                rates.add(new RequestRate(document.getTimestamp("bucketStart"),
+                        count == null ? 0 : count, granularity.getBucketSeconds()));
+            }
+            return rates;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Saves image information to the Firestore characteristics collection without waiting for the write.
+     * The document is keyed by the request ID, so saving the same request again overwrites it.
+     * The label index is updated once the document is saved, and a failure to update it does not fail the save.
+     *
+     * @param imageInfo the image information to save.
+     * @return a future holding the result of the write.
+     */
+    public ApiFuture<WriteResult> saveImageInfoAsync(ImageInformation imageInfo) {
+        ApiFuture<WriteResult> saved = SAVE_IMAGE_INFO_TIMER.time(
+                characteristicsCollection.document(imageDocumentId(imageInfo.getRequestId())).set(imageInfo));
+        return ApiFutures.transform(saved, result -> {
+            labelIndex.add(imageInfo);
+            return result;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Creates a writer that groups log and image information writes into batched commits.
+     *
+     * @param maxWrites      the maximum number of writes per commit, capped at
+     *                       {@link FirestoreBatchWriter#MAX_WRITES_PER_COMMIT}.
+     * @param maxDelayMillis the maximum time in milliseconds a write waits for its commit.
+     * @return a new batch writer, to be closed when no longer used.
+     */
+    public FirestoreBatchWriter newBatchWriter(int maxWrites, long maxDelayMillis) {
+        return new FirestoreBatchWriter(db, logsCollection, characteristicsCollection, labelIndex, maxWrites, maxDelayMillis);
     }
 
     /**
@@ -82,21 +229,177 @@ public class FirestoreService {
      * @throws InterruptedException if the operation is interrupted.
      */
     public ImageInformation getImageInfo(String uniqueID) throws ExecutionException, InterruptedException {
-        Query query = characteristicsCollection.whereEqualTo("requestId", uniqueID);
-        ApiFuture<QuerySnapshot> querySnapshot = query.get();
-        DocumentSnapshot document = querySnapshot.get().getDocuments().get(0);
-        if (document != null && document.exists()) {
-            return fromDocumentSnapshot(document);
-        } else {
-            return null;
+        return getImageInfoAsync(uniqueID).get();
+    }
+
+    /**
+     * Retrieves image information from Firestore based on a unique ID without waiting for the read.
+     *
+     * @param uniqueID the unique ID of the image.
+     * @return a future holding the image information, or null if not found.
+     */
+    public ApiFuture<ImageInformation> getImageInfoAsync(String uniqueID) {
+        return ApiFutures.transform(GET_IMAGE_INFO_TIMER.time(characteristicsCollection.document(imageDocumentId(uniqueID)).get()),
+                FirestoreService::fromDocumentSnapshot, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Retrieves the request ID of the first image submitted with the given content.
+     *
+     * @param contentHash the hex encoded SHA-256 of the image content.
+     * @return the request ID, or null if no image with this content was submitted.
+     * @throws ExecutionException   if an error occurs during Firestore operation.
+     * @throws InterruptedException if the operation is interrupted.
+     */
+    public String getRequestIdByContentHash(String contentHash) throws ExecutionException, InterruptedException {
+        return getRequestIdByContentHashAsync(contentHash).get();
+    }
+
+    /**
+     * Retrieves the request ID of the first image submitted with the given content without waiting for the read.
+     *
+     * @param contentHash the hex encoded SHA-256 of the image content.
+     * @return a future holding the request ID, or null if no image with this content was submitted.
+     */
+    public ApiFuture<String> getRequestIdByContentHashAsync(String contentHash) {
+        return ApiFutures.transform(GET_REQUEST_ID_BY_CONTENT_HASH_TIMER.time(contentHashesCollection.document(contentHash).get()),
+                document -> document.exists() ? document.getString("requestId") : null,
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Records the request ID of an image under the hash of its content, so later submissions
+     * of the same content can reuse its result. Saving a hash again replaces its request ID.
+     *
+     * @param contentHash the hex encoded SHA-256 of the image content.
+     * @param requestId   the request ID of the image.
+     * @return a future holding the result of the write.
+     */
+    public ApiFuture<WriteResult> saveContentHashAsync(String contentHash, String requestId) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("requestId", requestId);
+        entry.put("timestamp", Timestamp.now());
+        return SAVE_CONTENT_HASH_TIMER.time(contentHashesCollection.document(contentHash).set(entry));
+    }
+
+    /**
+     * Saves the result of an already processed image under a new request ID, so a duplicate
+     * submission is answered by the details of the original. The duplicate keeps its own submission time,
+     * so it is found by the date range queries and label index postings of the day it was submitted.
+     *
+     * @param existing  the information of the processed image.
+     * @param requestId the request ID of the duplicate submission.
+     * @param timestamp the time the duplicate was submitted.
+     * @return a future holding the result of the write.
+     */
+    public ApiFuture<WriteResult> linkImageInfoAsync(ImageInformation existing, String requestId, Timestamp timestamp) {
+        ImageInformation linked = new ImageInformation(requestId, timestamp,
+                new TranslationInformation(existing.getTranslationInfo()),
+                new VisionInformation(existing.getVisionInfo()));
+        return saveImageInfoAsync(linked);
+    }
+
+    /**
+     * Rewrites the image documents created with random IDs so that they are keyed by their request ID.
+     * Documents already keyed by their request ID are left untouched, so the backfill can be run again safely.
+     *
+     * @return the number of documents rewritten.
+     * @throws ExecutionException   if an error occurs during Firestore operation.
+     * @throws InterruptedException if the operation is interrupted.
+     */
+    public int backfillImageDocumentIds() throws ExecutionException, InterruptedException {
+        // Each rewrite is a set and a delete, so a page fills a whole commit
+        int pageSize = FirestoreBatchWriter.MAX_WRITES_PER_COMMIT / 2;
+        int rewritten = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = characteristicsCollection.orderBy(FieldPath.documentId()).limit(pageSize);
+            if (last != null) {
+                page = page.startAfter(last);
+            }
+            List<QueryDocumentSnapshot> documents = page.get().get().getDocuments();
+            if (documents.isEmpty()) {
+                return rewritten;
+            }
+            WriteBatch batch = db.batch();
+            int writes = 0;
+            for (QueryDocumentSnapshot document : documents) {
+                String requestId = document.getString("requestId");
+                if (requestId == null) {
+                    continue;
+                }
+                String documentId = imageDocumentId(requestId);
+                if (!documentId.equals(document.getId())) {
+                    batch.set(characteristicsCollection.document(documentId), document.getData());
+                    batch.delete(document.getReference());
+                    writes++;
+                }
+            }
+            if (writes > 0) {
+                batch.commit().get();
+                rewritten += writes;
+            }
+            last = documents.get(documents.size() - 1);
         }
     }
 
+    /**
+     * Adds every image document to the label index. Images saved before the index existed are only
+     * found by {@link #newLabelIndexPager} once this has run; running it again is harmless.
+     *
+     * @return the number of images indexed.
+     * @throws ExecutionException   if an error occurs during Firestore operation.
+     * @throws InterruptedException if the operation is interrupted.
+     */
+    public int backfillLabelIndex() throws ExecutionException, InterruptedException {
+        int pageSize = 100;
+        int indexed = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = characteristicsCollection.orderBy(FieldPath.documentId()).limit(pageSize);
+            if (last != null) {
+                page = page.startAfter(last);
+            }
+            List<QueryDocumentSnapshot> documents = page.get().get().getDocuments();
+            if (documents.isEmpty()) {
+                return indexed;
+            }
+            WriteBatch batch = db.batch();
+            int writes = 0;
+            for (QueryDocumentSnapshot document : documents) {
+                ImageInformation imageInfo = fromDocumentSnapshot(document);
+                if (writes + LabelIndex.writesFor(imageInfo) > FirestoreBatchWriter.MAX_WRITES_PER_COMMIT) {
+                    batch.commit().get();
+                    batch = db.batch();
+                    writes = 0;
+                }
+                writes += labelIndex.addToBatch(batch, imageInfo);
+                indexed++;
+            }
+            if (writes > 0) {
+                batch.commit().get();
+            }
+            last = documents.get(documents.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the ID of the document holding the information of an image.
+     * Request IDs are the names of the image blobs. They are URL-encoded, as a blob name may contain slashes,
+     * which Firestore reads as path separators.
+     *
+     * @param requestId the request ID of the image.
+     * @return the document ID.
+     */
+    static String imageDocumentId(String requestId) {
+        return URLEncoder.encode(requestId, StandardCharsets.UTF_8);
+    }
+
     /**
      * Retrieves a list of image file names between certain dates with a specific characteristic.
      *
      * @param startDate     the start date in "dd-MM-yyyy" format.
-     * @param endDate       the end date in "dd-MM-yyyy" format.
+     * @param endDate       the end date in "dd-MM-yyyy" format, excluded from the range.
      * @param characteristic the characteristic to filter by.
      * @return a list of image file names.
      * @throws ParseException       if the date format is incorrect.
@@ -107,23 +410,81 @@ public class FirestoreService {
             throws ParseException, ExecutionException, InterruptedException {
 
         List<String> images = new java.util.ArrayList<>(List.of());
-        SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
+        Query query = imageFileNameQuery(startDate, endDate, characteristic);
+        ApiFuture<QuerySnapshot> querySnapshot = GET_IMAGE_FILE_NAMES_TIMER.time(query.get());
+        for (DocumentSnapshot doc : querySnapshot.get().getDocuments()) {
+            images.add(doc.getString("requestId"));
+        }
+        return images;
+    }
 
-        Date startParsed = formatter.parse(startDate);
-        Date endParsed = formatter.parse(endDate);
+    /**
+     * Creates a pager over the image file names between certain dates with a specific characteristic.
+     *
+     * @param startDate      the start date in "dd-MM-yyyy" format.
+     * @param endDate        the end date in "dd-MM-yyyy" format, excluded from the range.
+     * @param characteristic the characteristic to filter by.
+     * @param pageSize       the maximum number of file names per page.
+     * @return a pager reading the file names one page at a time.
+     * @throws ParseException if the date format is incorrect.
+     */
+    public ImageFileNamePager newImageFileNamePager(String startDate, String endDate, String characteristic, int pageSize)
+            throws ParseException {
+        Query query = imageFileNameQuery(startDate, endDate, characteristic)
+                .orderBy("timestamp")
+                .orderBy(FieldPath.documentId());
+        return new ImageFileNamePager(query, pageSize);
+    }
+
+    /**
+     * Creates a pager answering a date range and labels query from the label index.
+     *
+     * @param startDate the start date in "dd-MM-yyyy" format.
+     * @param endDate   the end date in "dd-MM-yyyy" format, excluded from the range.
+     * @param labels    the labels to look for.
+     * @param matchAll  true to return images carrying every label, false for images carrying any of them.
+     * @param pageSize  the maximum number of file names in a page.
+     * @return a pager reading the file names one day at a time.
+     * @throws ParseException if the date format is incorrect.
+     */
+    public FileNamePager newLabelIndexPager(String startDate, String endDate, List<String> labels, boolean matchAll,
+                                            int pageSize) throws ParseException {
+        LocalDate startDay = LabelIndex.dayOf(parseDate(startDate).toInstant());
+        LocalDate endDay = LabelIndex.dayOf(parseDate(endDate).toInstant());
+        return labelIndex.newPager(startDay, endDay, labels, matchAll, pageSize);
+    }
 
-        Timestamp start = Timestamp.of(startParsed);
-        Timestamp end = Timestamp.of(endParsed);
+    /**
+     * Builds the query for image documents between certain dates with a specific characteristic.
+     *
+     * @param startDate      the start date in "dd-MM-yyyy" format.
+     * @param endDate        the end date in "dd-MM-yyyy" format, excluded from the range.
+     * @param characteristic the characteristic to filter by.
+     * @return the query.
+     * @throws ParseException if the date format is incorrect.
+     */
+    private Query imageFileNameQuery(String startDate, String endDate, String characteristic) throws ParseException {
+        Timestamp start = Timestamp.of(parseDate(startDate));
+        Timestamp end = Timestamp.of(parseDate(endDate));
 
-        Query query = characteristicsCollection
-                .whereGreaterThan("timestamp", start)
+        return characteristicsCollection
+                .whereGreaterThanOrEqualTo("timestamp", start)
                 .whereLessThan("timestamp", end)
                 .whereArrayContains("visionInfo", characteristic);
-        ApiFuture<QuerySnapshot> querySnapshot = query.get();
-        for (DocumentSnapshot doc : querySnapshot.get().getDocuments()) {
-            images.add(doc.getString("requestId"));
-        }
-        return images;
+    }
+
+    /**
+     * Parses a date of a query. Dates are taken in UTC, as the days of the label index are, so the legacy query
+     * and the index return the same images for the same range.
+     *
+     * @param date the date in "dd-MM-yyyy" format.
+     * @return the start of the day in UTC.
+     * @throws ParseException if the date format is incorrect.
+     */
+    private static Date parseDate(String date) throws ParseException {
+        SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return formatter.parse(date);
     }
 
     /**
@@ -146,4 +507,7 @@ public class FirestoreService {
         }
     }
 
-}
\ No newline at end of file
+    private static CallTimer timer(String operation) {
+        return MetricsRegistry.getDefault().timer("firestore_call", "Firestore calls", "operation", operation);
+    }
+}
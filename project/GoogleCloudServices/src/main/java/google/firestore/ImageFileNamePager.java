@@ -0,0 +1,72 @@
+package google.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the file names matching an image query one page at a time, using a cursor on the last
+ * document read, so the whole result never has to be held in memory.
+ */
+public class ImageFileNamePager implements FileNamePager {
+    private final Query query;
+    private final int pageSize;
+    private DocumentSnapshot last;
+    private boolean exhausted;
+
+    /**
+     * Constructs an ImageFileNamePager. Instances are obtained from {@link FirestoreService#newImageFileNamePager}.
+     *
+     * @param query    the query, ordered so that a cursor can resume it.
+     * @param pageSize the maximum number of file names per page.
+     */
+    ImageFileNamePager(Query query, int pageSize) {
+        this.query = query;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns whether more pages may be available.
+     *
+     * @return false once a page shorter than the page size has been read.
+     */
+    @Override
+    public boolean hasNext() {
+        return !exhausted;
+    }
+
+    /**
+     * Reads the next page of file names without waiting for Firestore.
+     *
+     * @return a future holding the file names of the page, empty once the query is exhausted.
+     */
+    @Override
+    public ApiFuture<List<String>> nextPageAsync() {
+        if (exhausted) {
+            return ApiFutures.immediateFuture(new ArrayList<>());
+        }
+        Query page = query.limit(pageSize);
+        if (last != null) {
+            page = page.startAfter(last);
+        }
+        return ApiFutures.transform(FirestoreService.IMAGE_FILE_NAME_PAGE_TIMER.time(page.get()), snapshot -> {
+            List<QueryDocumentSnapshot> documents = snapshot.getDocuments();
+            List<String> fileNames = new ArrayList<>();
+            for (QueryDocumentSnapshot document : documents) {
+                fileNames.add(document.getString("requestId"));
+            }
+            if (documents.size() < pageSize) {
+                exhausted = true;
+            } else {
+                last = documents.get(documents.size() - 1);
+            }
+            return fileNames;
+        }, MoreExecutors.directExecutor());
+    }
+}
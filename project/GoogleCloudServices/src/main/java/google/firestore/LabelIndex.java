@@ -0,0 +1,179 @@
+package google.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import google.firestore.models.ImageInformation;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inverted index of image request IDs by label and day.
+ * Each posting is a small document of its own for one label, day and request ID, so the images of a busy label
+ * are written to distinct documents rather than contending on a shared one, and no posting list grows toward the
+ * Firestore document size limit. A date range and label query reads the postings of the labels for each day
+ * instead of scanning every image in the range.
+ * <p>
+ * Postings are committed apart from the image documents, once these are saved, so a failed index write never
+ * fails the save of an image. Postings are idempotent, and those lost are rebuilt by
+ * {@link google.firestore.migration.LabelIndexBackfill}.
+ */
+public class LabelIndex {
+    private static final Logger logger = Logger.getLogger(LabelIndex.class.getName());
+
+    private final Firestore db;
+    private final CollectionReference indexCollection;
+
+    /**
+     * Constructs a LabelIndex. Instances are obtained from {@link FirestoreService}.
+     *
+     * @param db              the Firestore database.
+     * @param indexCollection the collection holding the postings.
+     */
+    LabelIndex(Firestore db, CollectionReference indexCollection) {
+        this.db = db;
+        this.indexCollection = indexCollection;
+    }
+
+    /**
+     * Adds the postings of an image to a batch. Adding the same image again rewrites the same postings.
+     *
+     * @param batch     the batch to add the writes to.
+     * @param imageInfo the saved image information.
+     * @return the number of writes added to the batch.
+     */
+    int addToBatch(WriteBatch batch, ImageInformation imageInfo) {
+        if (imageInfo.getTimestamp() == null) {
+            return 0;
+        }
+        LocalDate day = dayOf(imageInfo.getTimestamp().toDate().toInstant());
+        Set<String> labels = distinctLabels(imageInfo);
+        for (String label : labels) {
+            Map<String, Object> posting = new HashMap<>();
+            posting.put("label", label);
+            posting.put("day", day.toString());
+            posting.put("requestId", imageInfo.getRequestId());
+            batch.set(postingDocument(label, day, imageInfo.getRequestId()), posting);
+        }
+        return labels.size();
+    }
+
+    /**
+     * Commits the postings of a saved image on their own. A failure is only logged, as the image is saved
+     * and its postings can be rebuilt.
+     *
+     * @param imageInfo the saved image information.
+     */
+    void add(ImageInformation imageInfo) {
+        if (writesFor(imageInfo) == 0) {
+            return;
+        }
+        WriteBatch batch = db.batch();
+        addToBatch(batch, imageInfo);
+        logFailure(FirestoreService.LABEL_INDEX_WRITE_TIMER.time(batch.commit()), imageInfo);
+    }
+
+    /**
+     * Returns the number of writes {@link #addToBatch} adds for an image.
+     *
+     * @param imageInfo the image information being saved.
+     * @return the number of writes.
+     */
+    static int writesFor(ImageInformation imageInfo) {
+        return imageInfo.getTimestamp() == null ? 0 : distinctLabels(imageInfo).size();
+    }
+
+    /**
+     * Logs the failure of the index writes of an image.
+     *
+     * @param written   a future completed once the postings of the image are committed.
+     * @param imageInfo the image information.
+     */
+    static void logFailure(ApiFuture<?> written, ImageInformation imageInfo) {
+        ApiFutures.addCallback(written, new ApiFutureCallback<Object>() {
+            @Override
+            public void onFailure(Throwable t) {
+                logger.log(Level.WARNING, "Failed to index image " + imageInfo.getRequestId() + ": " + t.getMessage());
+            }
+
+            @Override
+            public void onSuccess(Object result) {
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Creates a pager over the request IDs of the images of a date range carrying the given labels.
+     *
+     * @param startDay the first day of the range.
+     * @param endDay   the day after the last day of the range.
+     * @param labels   the labels to look for.
+     * @param matchAll true to return images carrying every label, false for images carrying any of them.
+     * @param pageSize the maximum number of request IDs in a page.
+     * @return a pager returning the matching request IDs one day at a time.
+     */
+    LabelIndexPager newPager(LocalDate startDay, LocalDate endDay, List<String> labels, boolean matchAll, int pageSize) {
+        return new LabelIndexPager(this, startDay, endDay, labels, matchAll, pageSize);
+    }
+
+    /**
+     * Reads the request IDs of the images of one day carrying a label.
+     *
+     * @param label the label.
+     * @param day   the day.
+     * @return a future holding the request IDs.
+     */
+    ApiFuture<List<String>> postingsAsync(String label, LocalDate day) {
+        return ApiFutures.transform(indexCollection
+                .whereEqualTo("label", label)
+                .whereEqualTo("day", day.toString())
+                .select("requestId")
+                .get(), snapshot -> {
+            List<String> requestIds = new ArrayList<>();
+            for (QueryDocumentSnapshot document : snapshot.getDocuments()) {
+                requestIds.add(document.getString("requestId"));
+            }
+            return requestIds;
+        }, MoreExecutors.directExecutor());
+    }
+
+    private DocumentReference postingDocument(String label, LocalDate day, String requestId) {
+        return indexCollection.document(URLEncoder.encode(label, StandardCharsets.UTF_8) + "_" + day + "_"
+                + FirestoreService.imageDocumentId(requestId));
+    }
+
+    /**
+     * Returns the day of an instant. Days are taken in UTC on both the write and the read side.
+     */
+    static LocalDate dayOf(Instant instant) {
+        return instant.atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    private static Set<String> distinctLabels(ImageInformation imageInfo) {
+        Set<String> labels = new LinkedHashSet<>();
+        if (imageInfo.getVisionInfo() != null) {
+            labels.addAll(imageInfo.getVisionInfo());
+        }
+        labels.remove(null);
+        return labels;
+    }
+}
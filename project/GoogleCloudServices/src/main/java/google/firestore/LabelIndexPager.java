@@ -0,0 +1,130 @@
+package google.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Answers a date range and labels query from the {@link LabelIndex}, one day at a time.
+ * An image has a single day, so both AND and OR queries are resolved day by day by merging the
+ * postings of each label for that day, and only one day of postings is held in memory at a time.
+ * The matches of a busy day are returned over several pages of at most the page size.
+ */
+public class LabelIndexPager implements FileNamePager {
+    private final LabelIndex index;
+    private final LocalDate endDay;
+    private final List<String> labels;
+    private final boolean matchAll;
+    private final int pageSize;
+    private final Deque<String> pending = new ArrayDeque<>();
+    private LocalDate nextDay;
+
+    /**
+     * Constructs a LabelIndexPager. Instances are obtained from {@link FirestoreService#newLabelIndexPager}.
+     *
+     * @param index    the label index.
+     * @param startDay the first day of the range.
+     * @param endDay   the day after the last day of the range.
+     * @param labels   the labels to look for.
+     * @param matchAll true to return images carrying every label, false for images carrying any of them.
+     * @param pageSize the maximum number of request IDs in a page.
+     */
+    LabelIndexPager(LabelIndex index, LocalDate startDay, LocalDate endDay, List<String> labels, boolean matchAll,
+                    int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.index = index;
+        this.endDay = endDay;
+        this.labels = labels;
+        this.matchAll = matchAll;
+        this.pageSize = pageSize;
+        this.nextDay = startDay;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !pending.isEmpty() || (!labels.isEmpty() && nextDay.isBefore(endDay));
+    }
+
+    /**
+     * Returns the next matching request IDs of the day being read, or reads the next day that has any,
+     * skipping empty days.
+     *
+     * @return a future holding at most a page of sorted request IDs, empty once the range is exhausted.
+     */
+    @Override
+    public ApiFuture<List<String>> nextPageAsync() {
+        if (!pending.isEmpty()) {
+            return ApiFutures.immediateFuture(takePage());
+        }
+        if (!hasNext()) {
+            return ApiFutures.immediateFuture(new ArrayList<>());
+        }
+        LocalDate day = nextDay;
+        nextDay = nextDay.plusDays(1);
+        List<ApiFuture<List<String>>> postings = new ArrayList<>();
+        for (String label : labels) {
+            postings.add(index.postingsAsync(label, day));
+        }
+        ApiFuture<List<String>> matches = ApiFutures.transform(
+                FirestoreService.LABEL_INDEX_PAGE_TIMER.time(ApiFutures.allAsList(postings)),
+                postingsByLabel -> mergePostings(postingsByLabel, matchAll),
+                MoreExecutors.directExecutor());
+        return ApiFutures.transformAsync(matches, dayMatches -> {
+            if (dayMatches.isEmpty()) {
+                return nextPageAsync();
+            }
+            pending.addAll(dayMatches);
+            return ApiFutures.immediateFuture(takePage());
+        }, MoreExecutors.directExecutor());
+    }
+
+    private List<String> takePage() {
+        List<String> page = new ArrayList<>(Math.min(pageSize, pending.size()));
+        while (page.size() < pageSize && !pending.isEmpty()) {
+            page.add(pending.poll());
+        }
+        return page;
+    }
+
+    /**
+     * Merges the posting lists of several labels.
+     *
+     * @param postingsByLabel the request IDs carrying each label.
+     * @param matchAll        true for the request IDs in every list, false for those in any of them.
+     * @return the sorted merged request IDs.
+     */
+    static List<String> mergePostings(List<? extends Collection<String>> postingsByLabel, boolean matchAll) {
+        List<Collection<String>> lists = new ArrayList<>(postingsByLabel);
+        if (matchAll) {
+            // Intersecting from the shortest list keeps the work proportional to the rarest label
+            lists.sort(Comparator.comparingInt(Collection::size));
+        }
+        TreeSet<String> result = null;
+        for (Collection<String> postings : lists) {
+            if (result == null) {
+                result = new TreeSet<>(postings);
+            } else if (matchAll) {
+                result.retainAll(postings instanceof Set ? postings : new HashSet<>(postings));
+            } else {
+                result.addAll(postings);
+            }
+            if (matchAll && result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new ArrayList<>() : new ArrayList<>(result);
+    }
+}
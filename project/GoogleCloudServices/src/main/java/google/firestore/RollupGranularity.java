@@ -0,0 +1,44 @@
+package google.firestore;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The time buckets request counts are rolled up into. Each granularity has its own collection,
+ * so a time range is read with a single range query on the bucket start.
+ */
+public enum RollupGranularity {
+    MINUTE("RequestsPerMinute", ChronoUnit.MINUTES),
+    HOUR("RequestsPerHour", ChronoUnit.HOURS);
+
+    private final String collection;
+    private final ChronoUnit unit;
+
+    RollupGranularity(String collection, ChronoUnit unit) {
+        this.collection = collection;
+        this.unit = unit;
+    }
+
+    String getCollection() {
+        return collection;
+    }
+
+    /**
+     * Returns the start of the bucket holding an instant.
+     *
+     * @param instant the instant.
+     * @return the start of its bucket.
+     */
+    public Instant bucketOf(Instant instant) {
+        return instant.truncatedTo(unit);
+    }
+
+    /**
+     * Returns the length of a bucket.
+     *
+     * @return the length of a bucket in seconds.
+     */
+    public long getBucketSeconds() {
+        return unit.getDuration().getSeconds();
+    }
+}
@@ -0,0 +1,28 @@
+package google.firestore.migration;
+
+import google.firestore.FirestoreService;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off tool that rewrites the image documents created with random IDs so that they are keyed by
+ * their request ID, as expected by {@link FirestoreService#getImageInfo}.
+ */
+public class ImageDocumentIdBackfill {
+    private static final Logger logger = Logger.getLogger(ImageDocumentIdBackfill.class.getName());
+
+    /**
+     * Main method to run the backfill.
+     *
+     * @param args Command-line arguments (not used).
+     */
+    public static void main(String[] args) {
+        try {
+            int rewritten = new FirestoreService().backfillImageDocumentIds();
+            logger.log(Level.INFO, "Rewrote " + rewritten + " image documents");
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Backfill failed with exception: ", e);
+        }
+    }
+}
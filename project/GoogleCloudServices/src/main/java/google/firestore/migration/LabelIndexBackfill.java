@@ -0,0 +1,28 @@
+package google.firestore.migration;
+
+import google.firestore.FirestoreService;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off tool that adds the images saved before the label index existed to the index,
+ * so that {@link FirestoreService#newLabelIndexPager} finds them.
+ */
+public class LabelIndexBackfill {
+    private static final Logger logger = Logger.getLogger(LabelIndexBackfill.class.getName());
+
+    /**
+     * Main method to run the backfill.
+     *
+     * @param args Command-line arguments (not used).
+     */
+    public static void main(String[] args) {
+        try {
+            int indexed = new FirestoreService().backfillLabelIndex();
+            logger.log(Level.INFO, "Indexed " + indexed + " images");
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Backfill failed with exception: ", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package google.firestore.models;
+
+import com.google.cloud.Timestamp;
+
+public class RequestRate {
+    private Timestamp bucketStart;
+    private long count;
+    private long bucketSeconds;
+
+    public RequestRate() {}
+
+    public RequestRate(Timestamp bucketStart, long count, long bucketSeconds) {
+        this.bucketStart = bucketStart;
+        this.count = count;
+        this.bucketSeconds = bucketSeconds;
+    }
+
+    public Timestamp getBucketStart() {
+        return bucketStart;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBucketSeconds() {
+        return bucketSeconds;
+    }
+
+    public double getRatePerSecond() {
+        return bucketSeconds == 0 ? 0.0 : (double) count / bucketSeconds;
+    }
+}
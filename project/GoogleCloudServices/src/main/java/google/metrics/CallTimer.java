@@ -0,0 +1,55 @@
+package google.metrics;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Times the calls made to a remote service and counts the failed ones.
+ */
+public class CallTimer {
+    private final LatencyHistogram latency;
+    private final Counter errors;
+
+    CallTimer(LatencyHistogram latency, Counter errors) {
+        this.latency = latency;
+        this.errors = errors;
+    }
+
+    /**
+     * Times an asynchronous call until its future completes.
+     *
+     * @param future the future of the call.
+     * @param <T>    the result type of the call.
+     * @return the same future.
+     */
+    public <T> ApiFuture<T> time(ApiFuture<T> future) {
+        long start = System.nanoTime();
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                stop(start, true);
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                stop(start, false);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Records a synchronous call.
+     *
+     * @param startNanos the start of the call, as given by {@link System#nanoTime()}.
+     * @param failed     whether the call failed.
+     */
+    public void stop(long startNanos, boolean failed) {
+        latency.recordSince(startNanos);
+        if (failed) {
+            errors.inc();
+        }
+    }
+}
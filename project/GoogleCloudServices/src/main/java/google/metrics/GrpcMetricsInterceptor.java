@@ -0,0 +1,64 @@
+package google.metrics;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Counts the calls of every gRPC method and times them from their start until the server closes them, or until
+ * they are cancelled, such as when the client gives up or its deadline expires, as CANCELLED.
+ * Streaming calls are timed for the whole stream.
+ */
+public class GrpcMetricsInterceptor implements ServerInterceptor {
+    private final MetricsRegistry registry;
+
+    /**
+     * Constructs a GrpcMetricsInterceptor.
+     *
+     * @param registry the registry to record into.
+     */
+    public GrpcMetricsInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        String method = call.getMethodDescriptor().getFullMethodName();
+        long start = System.nanoTime();
+        registry.counter("grpc_server_started_total", "gRPC calls started", "method", method).inc();
+        // A cancelled call may still be closed by its handler, so only the first end is recorded
+        AtomicBoolean recorded = new AtomicBoolean();
+        ServerCall<ReqT, RespT> timedCall = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                if (recorded.compareAndSet(false, true)) {
+                    record(method, start, status.getCode());
+                }
+                super.close(status, trailers);
+            }
+        };
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(next.startCall(timedCall, headers)) {
+            @Override
+            public void onCancel() {
+                if (recorded.compareAndSet(false, true)) {
+                    record(method, start, Status.Code.CANCELLED);
+                }
+                super.onCancel();
+            }
+        };
+    }
+
+    private void record(String method, long start, Status.Code code) {
+        registry.histogram("grpc_server_handling_seconds", "Duration of the gRPC calls, in seconds",
+                "method", method).recordSince(start);
+        registry.counter("grpc_server_handled_total", "gRPC calls completed",
+                "method", method, "code", code.name()).inc();
+    }
+}
@@ -0,0 +1,72 @@
+package google.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations over log-linear buckets, four per power of two from 50 microseconds to
+ * about 100 seconds, so any percentile is known within about 20% whatever the scale of the durations.
+ * Recording is lock-free and allocation-free.
+ */
+public class LatencyHistogram {
+    private static final long[] BOUNDS_NANOS = new long[85];
+
+    static {
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            BOUNDS_NANOS[i] = Math.round(50_000 * Math.pow(2, i / 4.0));
+        }
+    }
+
+    // One more bucket than bounds, for the durations above the last bound
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        int low = 0;
+        int high = BOUNDS_NANOS.length;
+        // First bucket whose upper bound holds the duration
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS_NANOS[mid] < nanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        counts.incrementAndGet(low);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since the given start.
+     *
+     * @param startNanos the start, as given by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    static int getBucketCount() {
+        return BOUNDS_NANOS.length;
+    }
+
+    static double getBoundSeconds(int bucket) {
+        return BOUNDS_NANOS[bucket] / 1e9;
+    }
+
+    long getBucket(int bucket) {
+        return counts.get(bucket);
+    }
+
+    double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
@@ -0,0 +1,182 @@
+package google.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Holds the counters, gauges and latency histograms of the process, and writes them in the
+ * Prometheus text format. A metric is identified by its name and its labels, given as name and
+ * value pairs, and is created the first time it is asked for.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the registry shared by the whole process, which the services record into.
+     *
+     * @return the default registry.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a counter.
+     *
+     * @param name   the name of the counter, ending with _total.
+     * @param help   the description of the counter.
+     * @param labels the label names and values, alternating.
+     * @return the counter.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").get(labels, l -> new Counter());
+    }
+
+    /**
+     * Returns a latency histogram, exported in seconds.
+     *
+     * @param name   the name of the histogram, ending with _seconds.
+     * @param help   the description of the histogram.
+     * @param labels the label names and values, alternating.
+     * @return the histogram.
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "histogram").get(labels, l -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge, read each time the metrics are written. A gauge registered again with the
+     * same labels replaces the previous one.
+     *
+     * @param name   the name of the gauge.
+     * @param help   the description of the gauge.
+     * @param value  the current value of the gauge.
+     * @param labels the label names and values, alternating.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(renderLabels(labels), value);
+    }
+
+    /**
+     * Returns a timer of the calls to a remote service, made of the histogram prefix_duration_seconds
+     * and the counter prefix_errors_total.
+     *
+     * @param prefix the prefix of the metric names.
+     * @param help   the description of the calls.
+     * @param labels the label names and values, alternating.
+     * @return the timer.
+     */
+    public CallTimer timer(String prefix, String help, String... labels) {
+        return new CallTimer(histogram(prefix + "_duration_seconds", help + ", in seconds", labels),
+                counter(prefix + "_errors_total", help + " that failed", labels));
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format.
+     *
+     * @param writer the writer to write to.
+     * @throws IOException if the writer fails.
+     */
+    public void write(Writer writer) throws IOException {
+        for (Family family : families.values()) {
+            writer.write("# HELP " + family.name + " " + family.help + "\n");
+            writer.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Counter) {
+                    writeSample(writer, family.name, labels, ((Counter) value).get());
+                } else if (value instanceof DoubleSupplier) {
+                    writeSample(writer, family.name, labels, ((DoubleSupplier) value).getAsDouble());
+                } else {
+                    writeHistogram(writer, family.name, labels, (LatencyHistogram) value);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer writer, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.getBucketCount(); i++) {
+            cumulative += histogram.getBucket(i);
+            writeSample(writer, name + "_bucket", prefix + "le=\"" + LatencyHistogram.getBoundSeconds(i) + "\"", cumulative);
+        }
+        cumulative += histogram.getBucket(LatencyHistogram.getBucketCount());
+        writeSample(writer, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        writeSample(writer, name + "_sum", labels, histogram.getSumSeconds());
+        writeSample(writer, name + "_count", labels, cumulative);
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty()) {
+            writer.write("{" + labels + "}");
+        }
+        writer.write(" ");
+        writer.write(value == Math.rint(value) && !Double.isInfinite(value) ? Long.toString((long) value) : Double.toString(value));
+        writer.write("\n");
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + family.type);
+        }
+        return family;
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                rendered.append(',');
+            }
+            rendered.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    rendered.append('\\').append(c);
+                } else if (c == '\n') {
+                    rendered.append("\\n");
+                } else {
+                    rendered.append(c);
+                }
+            }
+            rendered.append('"');
+        }
+        return rendered.toString();
+    }
+
+    /**
+     * The metrics sharing a name, keyed by their rendered labels.
+     */
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        private Object get(String[] labels, Function<String, Object> create) {
+            return metrics.computeIfAbsent(renderLabels(labels), create);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package google.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics of a registry on /metrics in the Prometheus text format.
+ * The endpoint has no authentication, so it should be bound to loopback unless a scraper on another host
+ * is allowed to reach the port. The applications bind it to 127.0.0.1 unless their metricsAddress setting
+ * says otherwise, and do not start it at all when their metricsPort setting is 0.
+ */
+public class MetricsServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Starts serving the metrics.
+     *
+     * @param address  the address to listen on, such as 127.0.0.1 for loopback or 0.0.0.0 for every interface.
+     * @param port     the port to listen on.
+     * @param registry the registry of the metrics.
+     * @throws IOException if the port cannot be bound.
+     */
+    public MetricsServer(String address, int port, MetricsRegistry registry) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", exchange -> serve(exchange, registry));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private static void serve(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try {
+            StringWriter text = new StringWriter();
+            registry.write(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stops serving the metrics.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -1,7 +1,11 @@
 package google.pubsub.config;
 
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController;
 import com.google.api.gax.core.ExecutorProvider;
 import com.google.api.gax.core.InstantiatingExecutorProvider;
+import org.threeten.bp.Duration;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,6 +20,9 @@ public class PubSubConfig {
     private final String loggingAppSubscriptionID;
     private final String labelsAppSubscriptionID;
     private final ExecutorProvider executorProvider;
+    private final BatchingSettings publisherBatchingSettings;
+    private final SubscriberSettings loggingAppSubscriberSettings;
+    private final SubscriberSettings labelsAppSubscriberSettings;
 
     /**
      * Constructs a new PubSubConfig, loading settings from the properties file.
@@ -38,6 +45,22 @@ public class PubSubConfig {
 
         int executorThreadCount = Integer.parseInt(properties.getProperty("executorThreadCount"));
         this.executorProvider = InstantiatingExecutorProvider.newBuilder().setExecutorThreadCount(executorThreadCount).build();
+
+        FlowControlSettings publisherFlowControl = FlowControlSettings.newBuilder()
+                .setMaxOutstandingElementCount(Long.parseLong(properties.getProperty("publisherMaxOutstandingElementCount")))
+                .setMaxOutstandingRequestBytes(Long.parseLong(properties.getProperty("publisherMaxOutstandingRequestBytes")))
+                .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                .build();
+        this.publisherBatchingSettings = BatchingSettings.newBuilder()
+                .setElementCountThreshold(Long.parseLong(properties.getProperty("publisherElementCountThreshold")))
+                .setRequestByteThreshold(Long.parseLong(properties.getProperty("publisherRequestByteThreshold")))
+                .setDelayThreshold(Duration.ofMillis(Long.parseLong(properties.getProperty("publisherDelayThresholdMillis"))))
+                .setFlowControlSettings(publisherFlowControl)
+                .build();
+
+        // Log entries are cheap and labels are expensive, so each subscription is tuned on its own
+        this.loggingAppSubscriberSettings = SubscriberSettings.fromProperties(properties, "loggingApp");
+        this.labelsAppSubscriberSettings = SubscriberSettings.fromProperties(properties, "labelsApp");
     }
 
     public String getProjectId() {
@@ -59,5 +82,16 @@ public class PubSubConfig {
     public ExecutorProvider getExecutorProvider() {
         return executorProvider;
     }
-}
 
+    public BatchingSettings getPublisherBatchingSettings() {
+        return publisherBatchingSettings;
+    }
+
+    public SubscriberSettings getLoggingAppSubscriberSettings() {
+        return loggingAppSubscriberSettings;
+    }
+
+    public SubscriberSettings getLabelsAppSubscriberSettings() {
+        return labelsAppSubscriberSettings;
+    }
+}
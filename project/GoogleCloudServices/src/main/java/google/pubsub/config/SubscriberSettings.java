@@ -0,0 +1,83 @@
+package google.pubsub.config;
+
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController;
+import com.google.api.gax.core.ExecutorProvider;
+import com.google.api.gax.core.InstantiatingExecutorProvider;
+import org.threeten.bp.Duration;
+
+import java.util.Properties;
+
+/**
+ * Subscriber settings of one Pub/Sub subscription, so that applications with very different costs
+ * per message can lease, pull and process messages at their own pace.
+ */
+public class SubscriberSettings {
+    private final FlowControlSettings flowControlSettings;
+    private final int parallelPullCount;
+    private final int executorThreadCount;
+    private final ExecutorProvider executorProvider;
+    private final Duration maxAckExtensionPeriod;
+
+    private SubscriberSettings(FlowControlSettings flowControlSettings, int parallelPullCount,
+                               int executorThreadCount, Duration maxAckExtensionPeriod) {
+        this.flowControlSettings = flowControlSettings;
+        this.parallelPullCount = parallelPullCount;
+        this.executorThreadCount = executorThreadCount;
+        this.executorProvider = InstantiatingExecutorProvider.newBuilder()
+                .setExecutorThreadCount(executorThreadCount)
+                .build();
+        this.maxAckExtensionPeriod = maxAckExtensionPeriod;
+    }
+
+    /**
+     * Reads the settings of a subscription from the properties starting with the given prefix.
+     *
+     * @param properties the Pub/Sub properties.
+     * @param prefix     the prefix of the subscription properties, such as "loggingApp".
+     * @return the subscriber settings.
+     */
+    static SubscriberSettings fromProperties(Properties properties, String prefix) {
+        FlowControlSettings flowControl = FlowControlSettings.newBuilder()
+                .setMaxOutstandingElementCount(Long.parseLong(properties.getProperty(prefix + "MaxOutstandingElementCount")))
+                .setMaxOutstandingRequestBytes(Long.parseLong(properties.getProperty(prefix + "MaxOutstandingRequestBytes")))
+                .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                .build();
+        return new SubscriberSettings(
+                flowControl,
+                Integer.parseInt(properties.getProperty(prefix + "ParallelPullCount")),
+                Integer.parseInt(properties.getProperty(prefix + "ExecutorThreadCount")),
+                Duration.ofSeconds(Long.parseLong(properties.getProperty(prefix + "MaxAckExtensionPeriodSeconds"))));
+    }
+
+    /**
+     * Returns a copy of these settings leasing at most the given number of messages at a time.
+     * The configured limit still applies when it is lower.
+     *
+     * @param maxOutstandingElementCount the maximum number of messages leased at a time.
+     * @return the new subscriber settings.
+     */
+    public SubscriberSettings withMaxOutstandingElementCount(long maxOutstandingElementCount) {
+        long configured = flowControlSettings.getMaxOutstandingElementCount();
+        FlowControlSettings flowControl = flowControlSettings.toBuilder()
+                .setMaxOutstandingElementCount(Math.min(configured, maxOutstandingElementCount))
+                .build();
+        return new SubscriberSettings(flowControl, parallelPullCount, executorThreadCount, maxAckExtensionPeriod);
+    }
+
+    public FlowControlSettings getFlowControlSettings() {
+        return flowControlSettings;
+    }
+
+    public int getParallelPullCount() {
+        return parallelPullCount;
+    }
+
+    public ExecutorProvider getExecutorProvider() {
+        return executorProvider;
+    }
+
+    public Duration getMaxAckExtensionPeriod() {
+        return maxAckExtensionPeriod;
+    }
+}
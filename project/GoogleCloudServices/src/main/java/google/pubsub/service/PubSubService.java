@@ -5,10 +5,11 @@ import com.google.api.core.ApiFutureCallback;
 import com.google.api.core.ApiFutures;
 import com.google.api.core.ApiService.Listener;
 import com.google.api.core.ApiService.State;
-import com.google.api.gax.core.ExecutorProvider;
+import com.google.api.gax.batching.BatchingSettings;
 import com.google.api.gax.core.InstantiatingExecutorProvider;
 import com.google.api.gax.rpc.ApiException;
 import com.google.cloud.Timestamp;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
 import com.google.cloud.pubsub.v1.MessageReceiver;
 import com.google.cloud.pubsub.v1.Publisher;
 import com.google.cloud.pubsub.v1.Subscriber;
@@ -17,14 +18,25 @@ import com.google.protobuf.ByteString;
 import com.google.pubsub.v1.ProjectSubscriptionName;
 import com.google.pubsub.v1.ProjectTopicName;
 import com.google.pubsub.v1.PubsubMessage;
+import google.metrics.CallTimer;
+import google.metrics.Counter;
+import google.metrics.LatencyHistogram;
+import google.metrics.MetricsRegistry;
 import google.pubsub.config.PubSubConfig;
+import google.pubsub.config.SubscriberSettings;
+import google.pubsub.util.AvroCodec;
 import google.pubsub.util.AvroSchemaUtil;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,13 +45,24 @@ import java.util.logging.Logger;
  * to and from Google Cloud Pub/Sub.
  */
 public class PubSubService {
+    /**
+     * Attribute naming the request ID of the image a submission duplicates. Such a message is only
+     * logged, as the image was already labeled.
+     */
+    public static final String DUPLICATE_OF_ATTRIBUTE = "duplicateOf";
+
     private static final Logger logger = Logger.getLogger(PubSubService.class.getName());
     private final String projectId;
     private final String topicId;
     private final String loggingAppSubscriptionID;
     private final String labelsAppSubscriptionID;
-    private final ExecutorProvider executorProvider;
     private final AvroSchemaUtil avroSchemaUtil;
+    private final BatchingSettings publisherBatchingSettings;
+    private final SubscriberSettings loggingAppSubscriberSettings;
+    private final SubscriberSettings labelsAppSubscriberSettings;
+    private final Map<String, Publisher> publishers = new ConcurrentHashMap<>();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final CallTimer publishTimer;
 
     /**
      * Constructs a new PubSubService, initializing configuration and schema.
@@ -53,60 +76,145 @@ public class PubSubService {
         this.topicId = config.getTopicId();
         this.loggingAppSubscriptionID = config.getLoggingAppSubscriptionID();
         this.labelsAppSubscriptionID = config.getLabelsAppSubscriptionID();
-        this.executorProvider = config.getExecutorProvider();
+        this.publisherBatchingSettings = config.getPublisherBatchingSettings();
+        this.loggingAppSubscriberSettings = config.getLoggingAppSubscriberSettings();
+        this.labelsAppSubscriberSettings = config.getLabelsAppSubscriberSettings();
+        // Resolved once for the topic, so timing a publish neither renders its labels nor looks up its metrics
+        this.publishTimer = MetricsRegistry.getDefault().timer("pubsub_publish", "Pub/Sub publishes", "topic", topicId);
     }
 
     /**
-     * Publishes a message to a Pub/Sub topic.
+     * Publishes a message to a Pub/Sub topic without waiting for the publish to complete.
+     * Messages are batched by the long-lived publisher of the topic.
      *
      * @param id the ID of the message
      * @param bucketName the name of the bucket
      * @param blobName the name of the blob
-     * @throws IOException if there is an error during publishing
-     * @throws InterruptedException if the thread is interrupted during shutdown
+     * @return a future holding the ID of the published message
+     * @throws IOException if there is an error creating the publisher or the message
      */
-    public void publishMessage(String id, String bucketName, String blobName) throws IOException, InterruptedException {
-        ProjectTopicName topicName = ProjectTopicName.of(projectId, topicId);
-        Publisher publisher = null;
+    public ApiFuture<String> publishMessage(String id, String bucketName, String blobName) throws IOException {
+        return publish(id, bucketName, blobName, null);
+    }
 
-        try {
-            publisher = Publisher.newBuilder(topicName).build();
+    /**
+     * Publishes the message of a submission whose content duplicates an image already processed,
+     * without waiting for the publish to complete. The message is marked with
+     * {@link #DUPLICATE_OF_ATTRIBUTE}, so it is logged but not labeled again.
+     *
+     * @param id         the ID of the message
+     * @param bucketName the name of the bucket
+     * @param blobName   the name of the blob
+     * @param originalId the request ID of the image with the same content
+     * @return a future holding the ID of the published message
+     * @throws IOException if there is an error creating the publisher or the message
+     */
+    public ApiFuture<String> publishDuplicate(String id, String bucketName, String blobName, String originalId)
+            throws IOException {
+        return publish(id, bucketName, blobName, originalId);
+    }
 
-            ByteString data = avroSchemaUtil.createNewAvroRecord(id, bucketName, blobName);
+    private ApiFuture<String> publish(String id, String bucketName, String blobName, String duplicateOf)
+            throws IOException {
+        Publisher publisher = getPublisher(topicId);
 
-            Timestamp timestamp = Timestamp.now();
+        ByteString data = avroSchemaUtil.createNewAvroRecord(id, bucketName, blobName);
 
-            // Create Pub/Sub message
-            PubsubMessage pubsubMessage = PubsubMessage.newBuilder()
-                    .setData(data)
-                    .putAttributes("timestamp", timestamp.toString())
-                    .build();
+        Timestamp timestamp = Timestamp.now();
 
-            // Publish message
-            ApiFuture<String> messageIdFuture = publisher.publish(pubsubMessage);
-            ApiFutures.addCallback(messageIdFuture, new ApiFutureCallback<String>() {
-                @Override
-                public void onFailure(Throwable t) {
-                    if (t instanceof ApiException) {
-                        ApiException apiException = (ApiException) t;
-                        logger.log(Level.WARNING, "Error publishing message: " + apiException.getStatusCode().getCode());
-                        logger.log(Level.WARNING, apiException.getMessage());
-                    }
-                }
+        // Create Pub/Sub message
+        PubsubMessage.Builder message = PubsubMessage.newBuilder()
+                .setData(data)
+                .putAttributes("timestamp", timestamp.toString())
+                .putAttributes(AvroCodec.CONTENT_TYPE_ATTRIBUTE, avroSchemaUtil.getContentType());
+        if (duplicateOf != null) {
+            message.putAttributes(DUPLICATE_OF_ATTRIBUTE, duplicateOf);
+        }
+        PubsubMessage pubsubMessage = message.build();
 
-                @Override
-                public void onSuccess(String messageId) {
-                    logger.log(Level.INFO, "Published message ID: " + messageId);
+        // Publish message
+        ApiFuture<String> messageIdFuture = publishTimer.time(publisher.publish(pubsubMessage));
+        ApiFutures.addCallback(messageIdFuture, new ApiFutureCallback<String>() {
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof ApiException) {
+                    ApiException apiException = (ApiException) t;
+                    logger.log(Level.WARNING, "Error publishing message: " + apiException.getStatusCode().getCode());
+                    logger.log(Level.WARNING, apiException.getMessage());
                 }
-            }, executorProvider.getExecutor());
-        } finally {
-            if (publisher != null) {
+            }
+
+            @Override
+            public void onSuccess(String messageId) {
+                logger.log(Level.INFO, "Published message ID: " + messageId);
+            }
+            // Only logs, so it runs on the thread completing the publish
+        }, MoreExecutors.directExecutor());
+        return messageIdFuture;
+    }
+
+    /**
+     * Returns the publisher of the given topic, creating it on first use.
+     * Publishers are kept for the life of the process and closed by {@link #shutdown()}.
+     *
+     * @param topic the ID of the topic
+     * @return the publisher of the topic
+     * @throws IOException if there is an error creating the publisher
+     */
+    private Publisher getPublisher(String topic) throws IOException {
+        Publisher publisher = publishers.get(topic);
+        if (publisher != null) {
+            return publisher;
+        }
+        synchronized (publishers) {
+            publisher = publishers.get(topic);
+            if (publisher == null) {
+                publisher = Publisher.newBuilder(ProjectTopicName.of(projectId, topic))
+                        .setBatchingSettings(publisherBatchingSettings)
+                        .build();
+                publishers.put(topic, publisher);
+            }
+            return publisher;
+        }
+    }
+
+    /**
+     * Flushes outstanding messages and shuts down every publisher.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the publishers
+     */
+    public void shutdown() throws InterruptedException {
+        synchronized (publishers) {
+            for (Publisher publisher : publishers.values()) {
                 publisher.shutdown();
+            }
+            for (Publisher publisher : publishers.values()) {
                 publisher.awaitTermination(1, TimeUnit.MINUTES);
             }
+            publishers.clear();
         }
     }
 
+    /**
+     * Stops every subscriber started by this service, so no more messages are pulled, and waits for the
+     * receivers still handling a message to return.
+     *
+     * @param timeoutSeconds the maximum time in seconds to wait for each subscriber
+     */
+    public void stopSubscribers(long timeoutSeconds) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.stopAsync();
+        }
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.awaitTerminated(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException | IllegalStateException e) {
+                logger.log(Level.WARNING, "Subscriber did not stop cleanly: " + e.getMessage());
+            }
+        }
+        subscribers.clear();
+    }
+
     /**
      * Subscribes to the logging application Pub/Sub subscription.
      *
@@ -114,7 +222,21 @@ public class PubSubService {
      */
     public void subscribeMessageLogging(MessageReceiver receiver) {
         ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.of(projectId, loggingAppSubscriptionID);
-        subscribeMessage(subscriptionName, receiver);
+        subscribeMessage(subscriptionName, receiver, loggingAppSubscriberSettings);
+    }
+
+    /**
+     * Subscribes to the logging application Pub/Sub subscription, leasing at most the given number of
+     * messages at a time, or the configured limit if lower. Further messages are only pulled as earlier
+     * ones are acked or nacked.
+     *
+     * @param receiver               the message receiver
+     * @param maxOutstandingMessages the maximum number of messages leased at a time
+     */
+    public void subscribeMessageLogging(MessageReceiver receiver, long maxOutstandingMessages) {
+        ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.of(projectId, loggingAppSubscriptionID);
+        subscribeMessage(subscriptionName, receiver,
+                loggingAppSubscriberSettings.withMaxOutstandingElementCount(maxOutstandingMessages));
     }
 
     /**
@@ -124,7 +246,21 @@ public class PubSubService {
      */
     public void subscribeMessageLabels(MessageReceiver receiver) {
         ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.of(projectId, labelsAppSubscriptionID);
-        subscribeMessage(subscriptionName, receiver);
+        subscribeMessage(subscriptionName, receiver, labelsAppSubscriberSettings);
+    }
+
+    /**
+     * Subscribes to the labels application Pub/Sub subscription, leasing at most the given number of
+     * messages at a time, or the configured limit if lower. Further messages are only pulled as earlier
+     * ones are acked or nacked.
+     *
+     * @param receiver               the message receiver
+     * @param maxOutstandingMessages the maximum number of messages leased at a time
+     */
+    public void subscribeMessageLabels(MessageReceiver receiver, long maxOutstandingMessages) {
+        ProjectSubscriptionName subscriptionName = ProjectSubscriptionName.of(projectId, labelsAppSubscriptionID);
+        subscribeMessage(subscriptionName, receiver,
+                labelsAppSubscriberSettings.withMaxOutstandingElementCount(maxOutstandingMessages));
     }
 
     /**
@@ -132,13 +268,17 @@ public class PubSubService {
      *
      * @param subName the subscription name
      * @param receiver the message receiver
+     * @param settings the subscriber settings of the subscription
      */
-    private void subscribeMessage(ProjectSubscriptionName subName, MessageReceiver receiver) {
+    private void subscribeMessage(ProjectSubscriptionName subName, MessageReceiver receiver, SubscriberSettings settings) {
         Subscriber subscriber = null;
 
         try {
-            subscriber = Subscriber.newBuilder(subName, receiver)
-                    .setExecutorProvider(executorProvider)
+            subscriber = Subscriber.newBuilder(subName, instrumented(subName.getSubscription(), receiver))
+                    .setExecutorProvider(settings.getExecutorProvider())
+                    .setFlowControlSettings(settings.getFlowControlSettings())
+                    .setParallelPullCount(settings.getParallelPullCount())
+                    .setMaxAckExtensionPeriod(settings.getMaxAckExtensionPeriod())
                     .build();
             subscriber.addListener(new Listener() {
                 @Override
@@ -147,6 +287,7 @@ public class PubSubService {
                 }
             }, MoreExecutors.directExecutor());
             subscriber.startAsync().awaitRunning();
+            subscribers.add(subscriber);
             logger.info("Listening for messages on " + subName);
         } catch (Exception e) {
             if (subscriber != null) {
@@ -155,4 +296,40 @@ public class PubSubService {
             logger.log(Level.WARNING, "Error during subscriber setup: " + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Wraps a message receiver to count the messages received, acked and nacked on a subscription,
+     * and to time each message from its delivery until it is acked or nacked.
+     *
+     * @param subscription the ID of the subscription
+     * @param receiver the message receiver
+     * @return the instrumented receiver
+     */
+    private static MessageReceiver instrumented(String subscription, MessageReceiver receiver) {
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        Counter received = registry.counter("pubsub_received_total", "Pub/Sub messages received", "subscription", subscription);
+        Counter acked = registry.counter("pubsub_acked_total", "Pub/Sub messages acked", "subscription", subscription);
+        Counter nacked = registry.counter("pubsub_nacked_total", "Pub/Sub messages nacked", "subscription", subscription);
+        LatencyHistogram handling = registry.histogram("pubsub_message_handling_seconds",
+                "Time from the delivery of a Pub/Sub message to its ack or nack, in seconds", "subscription", subscription);
+        return (message, consumer) -> {
+            long start = System.nanoTime();
+            received.inc();
+            receiver.receiveMessage(message, new AckReplyConsumer() {
+                @Override
+                public void ack() {
+                    handling.recordSince(start);
+                    acked.inc();
+                    consumer.ack();
+                }
+
+                @Override
+                public void nack() {
+                    handling.recordSince(start);
+                    nacked.inc();
+                    consumer.nack();
+                }
+            });
+        };
+    }
+}
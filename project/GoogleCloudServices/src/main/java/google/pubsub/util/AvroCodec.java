@@ -0,0 +1,88 @@
+package google.pubsub.util;
+
+import com.google.protobuf.ByteString;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonDecoder;
+
+import java.io.IOException;
+
+/**
+ * AvroCodec encodes and decodes the pipeline messages with Avro.
+ * Messages are written in the binary encoding and read in either the binary or the legacy JSON
+ * encoding, chosen by the {@link #CONTENT_TYPE_ATTRIBUTE} attribute of the message.
+ * Encoders, decoders and datum readers/writers are reused per thread.
+ */
+public class AvroCodec {
+    public static final String CONTENT_TYPE_ATTRIBUTE = "contentType";
+    public static final String CONTENT_TYPE_BINARY = "avro/binary";
+    public static final String CONTENT_TYPE_JSON = "avro/json";
+
+    private final ThreadLocal<DatumWriter<GenericRecord>> writers;
+    private final ThreadLocal<DatumReader<GenericRecord>> readers;
+    private final ThreadLocal<BinaryEncoder> encoders = new ThreadLocal<>();
+    private final ThreadLocal<BinaryDecoder> binaryDecoders = new ThreadLocal<>();
+    private final ThreadLocal<JsonDecoder> jsonDecoders;
+
+    /**
+     * Constructs an AvroCodec for the given schema.
+     *
+     * @param schema the schema of the messages
+     */
+    public AvroCodec(Schema schema) {
+        this.writers = ThreadLocal.withInitial(() -> new GenericDatumWriter<>(schema));
+        this.readers = ThreadLocal.withInitial(() -> new GenericDatumReader<>(schema));
+        this.jsonDecoders = ThreadLocal.withInitial(() -> {
+            try {
+                return DecoderFactory.get().jsonDecoder(schema, "");
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to create JSON decoder.", e);
+            }
+        });
+    }
+
+    /**
+     * Encodes a record in the Avro binary encoding.
+     *
+     * @param record the record to encode
+     * @return the encoded record
+     * @throws IOException if there is an error encoding the record
+     */
+    public ByteString encode(GenericRecord record) throws IOException {
+        ByteString.Output out = ByteString.newOutput();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, encoders.get());
+        encoders.set(encoder);
+        writers.get().write(record, encoder);
+        encoder.flush();
+        return out.toByteString();
+    }
+
+    /**
+     * Decodes a record, choosing the encoding from the content type of the message.
+     * Messages without a content type are decoded as JSON, as they were published before the
+     * binary encoding was introduced.
+     *
+     * @param data        the encoded record
+     * @param contentType the content type attribute of the message, may be null
+     * @return the decoded record
+     * @throws IOException if there is an error decoding the record
+     */
+    public GenericRecord decode(ByteString data, String contentType) throws IOException {
+        if (CONTENT_TYPE_BINARY.equals(contentType)) {
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data.newInput(), binaryDecoders.get());
+            binaryDecoders.set(decoder);
+            return readers.get().read(null, decoder);
+        }
+        JsonDecoder decoder = jsonDecoders.get();
+        decoder.configure(data.toStringUtf8());
+        return readers.get().read(null, decoder);
+    }
+}
@@ -12,18 +12,19 @@ import java.io.IOException;
  */
 public class AvroSchemaUtil {
     private final Schema schema = new Schema.Parser().parse(AvroSchemaUtil.class.getResourceAsStream("/google/pubsub/messageSchema.avsc"));
+    private final AvroCodec codec = new AvroCodec(schema);
 
     public AvroSchemaUtil() throws IOException {
     }
 
     /**
-     * Create a new Avro record to be sent as a message.
+     * Create a new Avro record to be sent as a message, in the Avro binary encoding.
      *
      * @param id the id of the message
      * @param bucketName the name of the bucket of the message
      * @param blobName the name of the blob of the message
      * @return the message in a byte string
-     * @throws IOException if there is an error reading the schema file
+     * @throws IOException if there is an error encoding the record
      */
     public ByteString createNewAvroRecord(String id, String bucketName, String blobName) throws IOException {
         GenericRecord record = new GenericData.Record(schema);
@@ -31,6 +32,15 @@ public class AvroSchemaUtil {
         record.put("bucketName", bucketName);
         record.put("blobName", blobName);
 
-        return ByteString.copyFromUtf8(record.toString());
+        return codec.encode(record);
+    }
+
+    /**
+     * Returns the content type of the messages created by {@link #createNewAvroRecord}.
+     *
+     * @return the content type attribute value
+     */
+    public String getContentType() {
+        return AvroCodec.CONTENT_TYPE_BINARY;
     }
 }
@@ -0,0 +1,116 @@
+package google.scaling.autoscaler;
+
+/**
+ * Computes the number of image-processing workers from the load of their subscription.
+ * <p>
+ * The workers must keep up with the messages arriving, estimated by the current processing rate, and also
+ * drain the backlog within the drain time. Dividing that load by the capacity of one worker at the target
+ * utilization gives the number of workers, bounded by the minimum and maximum. The capacity of a worker is
+ * only measured from the running workers while a backlog keeps them all busy, outside the cooldown after a
+ * change, and otherwise keeps its last value.
+ * <p>
+ * Scaling down only happens once the utilization falls below the target by the hysteresis, so the group does
+ * not flap around the target, and each change is followed by a cooldown before the next one. The policy only
+ * depends on the samples it is given, so it can be replayed against recorded load traces.
+ */
+public class AutoscalingPolicy {
+    // Weight of a new capacity measurement against the previous estimate
+    private static final double CAPACITY_SMOOTHING = 0.3;
+
+    private final int minInstances;
+    private final int maxInstances;
+    private final double targetUtilization;
+    private final double scaleDownHysteresis;
+    private final long drainSeconds;
+    private final long scaleUpCooldownMillis;
+    private final long scaleDownCooldownMillis;
+    private double instanceCapacity;
+    private boolean changed;
+    private long lastChangeMillis;
+
+    /**
+     * Constructs an AutoscalingPolicy.
+     *
+     * @param minInstances            the minimum number of workers.
+     * @param maxInstances            the maximum number of workers.
+     * @param instanceCapacity        the initial estimate of the messages processed per second by one worker.
+     * @param targetUtilization       the fraction of their capacity the workers should run at, in (0, 1].
+     * @param scaleDownHysteresis     how far below the target the utilization must fall before scaling down.
+     * @param drainSeconds            the time in seconds in which the backlog should be drained.
+     * @param scaleUpCooldownMillis   the time in milliseconds after a change before scaling up again.
+     * @param scaleDownCooldownMillis the time in milliseconds after a change before scaling down again.
+     */
+    public AutoscalingPolicy(int minInstances, int maxInstances, double instanceCapacity, double targetUtilization,
+                             double scaleDownHysteresis, long drainSeconds, long scaleUpCooldownMillis,
+                             long scaleDownCooldownMillis) {
+        if (minInstances < 0 || maxInstances < minInstances) {
+            throw new IllegalArgumentException("Invalid instance bounds " + minInstances + ".." + maxInstances);
+        }
+        if (instanceCapacity <= 0 || targetUtilization <= 0 || targetUtilization > 1 || drainSeconds <= 0) {
+            throw new IllegalArgumentException("Capacity, target utilization and drain time must be positive");
+        }
+        this.minInstances = minInstances;
+        this.maxInstances = maxInstances;
+        this.instanceCapacity = instanceCapacity;
+        this.targetUtilization = targetUtilization;
+        this.scaleDownHysteresis = scaleDownHysteresis;
+        this.drainSeconds = drainSeconds;
+        this.scaleUpCooldownMillis = scaleUpCooldownMillis;
+        this.scaleDownCooldownMillis = scaleDownCooldownMillis;
+    }
+
+    /**
+     * Returns the number of workers for the given load. A result different from the current number of
+     * workers starts the cooldown, so it should be applied.
+     *
+     * @param sample the load of the workers.
+     * @return the number of workers to scale to, or the current number to leave the group as it is.
+     */
+    public int recommend(LoadSample sample) {
+        int current = sample.getCurrentInstances();
+        int running = sample.getRunningInstances();
+        long sinceChange = changed ? sample.getTimeMillis() - lastChangeMillis : Long.MAX_VALUE;
+        // Right after a change, instances are still booting or draining and the rate lags behind them
+        if (running > 0 && sample.getBacklog() > 0 && sample.getProcessingRate() > 0
+                && sinceChange >= scaleUpCooldownMillis) {
+            double measured = sample.getProcessingRate() / running;
+            instanceCapacity += CAPACITY_SMOOTHING * (measured - instanceCapacity);
+        }
+
+        double load = sample.getProcessingRate() + (double) sample.getBacklog() / drainSeconds;
+        int desired = clamp((int) Math.ceil(load / (instanceCapacity * targetUtilization)));
+
+        int target = current;
+        if (current < minInstances || current > maxInstances) {
+            // Out of bounds after a manual resize, brought back whatever the cooldown
+            target = desired;
+        } else if (desired > current) {
+            if (sinceChange >= scaleUpCooldownMillis) {
+                target = desired;
+            }
+        } else if (desired < current) {
+            double utilization = load / (instanceCapacity * current);
+            if (utilization < targetUtilization - scaleDownHysteresis && sinceChange >= scaleDownCooldownMillis) {
+                target = desired;
+            }
+        }
+        if (target != current) {
+            changed = true;
+            lastChangeMillis = sample.getTimeMillis();
+        }
+        return target;
+    }
+
+    /**
+     * Returns the current estimate of the messages processed per second by one worker.
+     *
+     * @return the capacity of one worker.
+     */
+    public double getInstanceCapacity() {
+        return instanceCapacity;
+    }
+
+    private int clamp(int instances) {
+        return Math.max(minInstances, Math.min(maxInstances, instances));
+    }
+}
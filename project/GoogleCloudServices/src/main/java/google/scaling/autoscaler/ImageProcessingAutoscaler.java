@@ -0,0 +1,89 @@
+package google.scaling.autoscaler;
+
+import google.scaling.config.ScalingInstancesConfig;
+import google.scaling.service.ScalingInstancesService;
+import google.scaling.service.ScalingOperation;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically sizes the image-processing instance group from the backlog and processing rate of the
+ * labels subscription, as decided by an {@link AutoscalingPolicy}. Only one process should run it, as
+ * the cooldown is kept in memory.
+ */
+public class ImageProcessingAutoscaler implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ImageProcessingAutoscaler.class.getName());
+
+    private final ScalingInstancesService scalingService;
+    private final SubscriptionMetrics metrics;
+    private final AutoscalingPolicy policy;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private String pendingOperationId;
+
+    /**
+     * Constructs an ImageProcessingAutoscaler.
+     *
+     * @param config         the scaling configuration holding the policy settings.
+     * @param scalingService the service resizing the instance group.
+     * @param metrics        the metrics of the labels subscription.
+     */
+    public ImageProcessingAutoscaler(ScalingInstancesConfig config, ScalingInstancesService scalingService,
+                                     SubscriptionMetrics metrics) {
+        this.scalingService = scalingService;
+        this.metrics = metrics;
+        this.policy = new AutoscalingPolicy(
+                config.getAutoscalerMinInstances(),
+                config.getAutoscalerMaxInstances(),
+                config.getAutoscalerInstanceCapacity(),
+                config.getAutoscalerTargetUtilization(),
+                config.getAutoscalerScaleDownHysteresis(),
+                config.getAutoscalerDrainSeconds(),
+                TimeUnit.SECONDS.toMillis(config.getAutoscalerScaleUpCooldownSeconds()),
+                TimeUnit.SECONDS.toMillis(config.getAutoscalerScaleDownCooldownSeconds()));
+        long interval = config.getAutoscalerIntervalSeconds();
+        scheduler.scheduleWithFixedDelay(this::evaluate, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void evaluate() {
+        try {
+            // A resize takes a while, and the group size only reflects it once it is done
+            if (pendingOperationId != null) {
+                ScalingOperation pending = scalingService.getOperation(pendingOperationId);
+                if (pending != null && pending.isPending(System.currentTimeMillis())) {
+                    return;
+                }
+                pendingOperationId = null;
+            }
+            LoadSample sample = new LoadSample(System.currentTimeMillis(), metrics.getBacklog(), metrics.getAckRate(),
+                    scalingService.getImageProcessingTargetSize(),
+                    scalingService.getImageProcessingRunningInstances());
+            int target = policy.recommend(sample);
+            if (target == sample.getCurrentInstances()) {
+                return;
+            }
+            logger.log(Level.INFO, "Resizing image processing instances to " + target + " for " + sample
+                    + String.format(" capacity=%.2f/s", policy.getInstanceCapacity()));
+            // Shares the resizes of the group with manual requests on every server, so the latest of them wins
+            pendingOperationId = scalingService.scaleImageProcessingInstancesLogic(target).get().getId();
+        } catch (RuntimeException | ExecutionException e) {
+            // Keeps the loop running after a failed read, as the next one may succeed
+            logger.log(Level.WARNING, "Autoscaler evaluation failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the autoscaler and closes the metrics client.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        metrics.close();
+    }
+}
@@ -0,0 +1,55 @@
+package google.scaling.autoscaler;
+
+/**
+ * The load of the image-processing workers observed at one point in time.
+ */
+public class LoadSample {
+    private final long timeMillis;
+    private final long backlog;
+    private final double processingRate;
+    private final int currentInstances;
+    private final int runningInstances;
+
+    /**
+     * Constructs a LoadSample.
+     *
+     * @param timeMillis       the time of the sample in milliseconds.
+     * @param backlog          the number of messages waiting in the subscription.
+     * @param processingRate   the number of messages acked per second by all the workers.
+     * @param currentInstances the target size of the instance group.
+     * @param runningInstances the number of instances of the group actually running.
+     */
+    public LoadSample(long timeMillis, long backlog, double processingRate, int currentInstances, int runningInstances) {
+        this.timeMillis = timeMillis;
+        this.backlog = backlog;
+        this.processingRate = processingRate;
+        this.currentInstances = currentInstances;
+        this.runningInstances = runningInstances;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getBacklog() {
+        return backlog;
+    }
+
+    public double getProcessingRate() {
+        return processingRate;
+    }
+
+    public int getCurrentInstances() {
+        return currentInstances;
+    }
+
+    public int getRunningInstances() {
+        return runningInstances;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("backlog=%d rate=%.2f/s instances=%d running=%d",
+                backlog, processingRate, currentInstances, runningInstances);
+    }
+}
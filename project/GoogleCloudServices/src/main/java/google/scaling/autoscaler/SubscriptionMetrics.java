@@ -0,0 +1,92 @@
+package google.scaling.autoscaler;
+
+import com.google.cloud.monitoring.v3.MetricServiceClient;
+import com.google.monitoring.v3.Aggregation;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Timestamp;
+
+import java.io.IOException;
+
+/**
+ * Reads the backlog and the processing rate of a Pub/Sub subscription from Cloud Monitoring.
+ * Pub/Sub metrics are published with a delay of a minute or two, so the latest point of the last
+ * few minutes is used.
+ */
+public class SubscriptionMetrics implements AutoCloseable {
+    private static final long WINDOW_SECONDS = 300;
+    private static final long ALIGNMENT_SECONDS = 60;
+
+    private final MetricServiceClient client;
+    private final String project;
+    private final String subscriptionId;
+
+    /**
+     * Constructs a SubscriptionMetrics.
+     *
+     * @param project        the project ID in Google Cloud Platform.
+     * @param subscriptionId the ID of the subscription.
+     * @throws IOException if the Cloud Monitoring client cannot be created.
+     */
+    public SubscriptionMetrics(String project, String subscriptionId) throws IOException {
+        this.client = MetricServiceClient.create();
+        this.project = project;
+        this.subscriptionId = subscriptionId;
+    }
+
+    /**
+     * Returns the number of messages waiting in the subscription.
+     *
+     * @return the backlog of the subscription, or 0 if no point was published recently.
+     */
+    public long getBacklog() {
+        return (long) latest("pubsub.googleapis.com/subscription/num_undelivered_messages", Aggregation.Aligner.ALIGN_MAX);
+    }
+
+    /**
+     * Returns the number of messages acked per second.
+     *
+     * @return the processing rate of the subscription, or 0 if no point was published recently.
+     */
+    public double getAckRate() {
+        return latest("pubsub.googleapis.com/subscription/ack_message_count", Aggregation.Aligner.ALIGN_RATE);
+    }
+
+    private double latest(String metricType, Aggregation.Aligner aligner) {
+        long now = System.currentTimeMillis() / 1000;
+        TimeInterval interval = TimeInterval.newBuilder()
+                .setStartTime(Timestamp.newBuilder().setSeconds(now - WINDOW_SECONDS))
+                .setEndTime(Timestamp.newBuilder().setSeconds(now))
+                .build();
+        Aggregation aggregation = Aggregation.newBuilder()
+                .setAlignmentPeriod(Duration.newBuilder().setSeconds(ALIGNMENT_SECONDS))
+                .setPerSeriesAligner(aligner)
+                .setCrossSeriesReducer(Aggregation.Reducer.REDUCE_SUM)
+                .addGroupByFields("resource.label.subscription_id")
+                .build();
+        ListTimeSeriesRequest request = ListTimeSeriesRequest.newBuilder()
+                .setName(ProjectName.of(project).toString())
+                .setFilter("metric.type=\"" + metricType + "\" AND resource.label.subscription_id=\"" + subscriptionId + "\"")
+                .setInterval(interval)
+                .setAggregation(aggregation)
+                .setView(ListTimeSeriesRequest.TimeSeriesView.FULL)
+                .build();
+        for (TimeSeries series : client.listTimeSeries(request).iterateAll()) {
+            if (series.getPointsCount() > 0) {
+                // Points are returned newest first
+                TypedValue value = series.getPoints(0).getValue();
+                return value.getValueCase() == TypedValue.ValueCase.INT64_VALUE ? value.getInt64Value() : value.getDoubleValue();
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
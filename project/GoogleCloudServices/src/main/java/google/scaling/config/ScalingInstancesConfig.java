@@ -12,6 +12,15 @@ public class ScalingInstancesConfig {
     private final String zone;
     private final String serverInstancesGroupName;
     private final String imageProcessingInstancesGroupName;
+    private final int autoscalerIntervalSeconds;
+    private final int autoscalerMinInstances;
+    private final int autoscalerMaxInstances;
+    private final double autoscalerInstanceCapacity;
+    private final double autoscalerTargetUtilization;
+    private final double autoscalerScaleDownHysteresis;
+    private final long autoscalerDrainSeconds;
+    private final long autoscalerScaleUpCooldownSeconds;
+    private final long autoscalerScaleDownCooldownSeconds;
 
     /**
      * Constructs a new ScalingInstancesConfig, loading settings from the properties file.
@@ -31,6 +40,15 @@ public class ScalingInstancesConfig {
         this.zone = properties.getProperty("zone");
         this.serverInstancesGroupName = properties.getProperty("serverInstancesGroupName");
         this.imageProcessingInstancesGroupName = properties.getProperty("imageProcessingInstancesGroupName");
+        this.autoscalerIntervalSeconds = Integer.parseInt(properties.getProperty("autoscalerIntervalSeconds"));
+        this.autoscalerMinInstances = Integer.parseInt(properties.getProperty("autoscalerMinInstances"));
+        this.autoscalerMaxInstances = Integer.parseInt(properties.getProperty("autoscalerMaxInstances"));
+        this.autoscalerInstanceCapacity = Double.parseDouble(properties.getProperty("autoscalerInstanceCapacity"));
+        this.autoscalerTargetUtilization = Double.parseDouble(properties.getProperty("autoscalerTargetUtilization"));
+        this.autoscalerScaleDownHysteresis = Double.parseDouble(properties.getProperty("autoscalerScaleDownHysteresis"));
+        this.autoscalerDrainSeconds = Long.parseLong(properties.getProperty("autoscalerDrainSeconds"));
+        this.autoscalerScaleUpCooldownSeconds = Long.parseLong(properties.getProperty("autoscalerScaleUpCooldownSeconds"));
+        this.autoscalerScaleDownCooldownSeconds = Long.parseLong(properties.getProperty("autoscalerScaleDownCooldownSeconds"));
     }
 
     public String getProjectId() {
@@ -48,4 +66,40 @@ public class ScalingInstancesConfig {
     public String getImageProcessingInstancesGroupName() {
         return imageProcessingInstancesGroupName;
     }
-}
\ No newline at end of file
+
+    public int getAutoscalerIntervalSeconds() {
+        return autoscalerIntervalSeconds;
+    }
+
+    public int getAutoscalerMinInstances() {
+        return autoscalerMinInstances;
+    }
+
+    public int getAutoscalerMaxInstances() {
+        return autoscalerMaxInstances;
+    }
+
+    public double getAutoscalerInstanceCapacity() {
+        return autoscalerInstanceCapacity;
+    }
+
+    public double getAutoscalerTargetUtilization() {
+        return autoscalerTargetUtilization;
+    }
+
+    public double getAutoscalerScaleDownHysteresis() {
+        return autoscalerScaleDownHysteresis;
+    }
+
+    public long getAutoscalerDrainSeconds() {
+        return autoscalerDrainSeconds;
+    }
+
+    public long getAutoscalerScaleUpCooldownSeconds() {
+        return autoscalerScaleUpCooldownSeconds;
+    }
+
+    public long getAutoscalerScaleDownCooldownSeconds() {
+        return autoscalerScaleDownCooldownSeconds;
+    }
+}
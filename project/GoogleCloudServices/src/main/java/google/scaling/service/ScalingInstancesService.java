@@ -1,8 +1,17 @@
 package google.scaling.service;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.api.gax.longrunning.OperationFuture;
+import com.google.api.gax.longrunning.OperationSnapshot;
+import com.google.cloud.compute.v1.GetZoneOperationRequest;
 import com.google.cloud.compute.v1.InstanceGroupManagersClient;
+import com.google.cloud.compute.v1.ManagedInstance;
 import com.google.cloud.compute.v1.Operation;
+import com.google.cloud.compute.v1.ZoneOperationsClient;
+import com.google.common.util.concurrent.MoreExecutors;
+import google.firestore.FirestoreService;
 import google.scaling.config.ScalingInstancesConfig;
 
 import java.io.IOException;
@@ -13,72 +22,200 @@ import java.util.logging.Logger;
 /**
  * ScalingInstancesService handles the scaling of server instances
  * for different instance groups within a Google Cloud project.
+ * Resizes run in the background on a shared client and are tracked as {@link ScalingOperation}s in Firestore,
+ * so any server reports an operation whichever server accepted it.
+ * Each group runs one resize at a time: requests arriving meanwhile are queued, and a newer request
+ * replaces the queued one, so the group ends at the latest target without a resize per request.
  */
 public class ScalingInstancesService {
+    private static final String RUNNING = "RUNNING";
+
     private final Logger logger = Logger.getLogger(ScalingInstancesService.class.getName());
     private final String project;
     private final String zone;
-    private final String ServerInstancesGroupName;
+    private final String serverInstancesGroupName;
     private final String ImageProcessingInstancesGroupName;
+    private final InstanceGroupManagersClient managersClient;
+    private final ZoneOperationsClient zoneOperationsClient;
+    private final ScalingOperationStore store;
 
     /**
      * Constructs a new ScalingInstancesService.
      *
+     * @param firestoreService the Firestore service holding the scaling operations.
      * @throws IOException if there is an error loading the configuration or properties
      */
-    public ScalingInstancesService() throws IOException {
+    public ScalingInstancesService(FirestoreService firestoreService) throws IOException {
         ScalingInstancesConfig sIC = new ScalingInstancesConfig();
         this.project = sIC.getProjectId();
         this.zone = sIC.getZone();
-        ServerInstancesGroupName = sIC.getServerInstancesGroupName();
+        this.serverInstancesGroupName = sIC.getServerInstancesGroupName();
         ImageProcessingInstancesGroupName = sIC.getImageProcessingInstancesGroupName();
+        // Shared by every resize, and kept open so operations can be polled after the call that started them returns
+        this.managersClient = InstanceGroupManagersClient.create();
+        this.zoneOperationsClient = ZoneOperationsClient.create();
+        this.store = new ScalingOperationStore(firestoreService.getDb());
     }
 
     /**
-     * Scales the server instances to the specified number.
+     * Scales the server instances to the specified number, without waiting for the resize.
      *
      * @param numInstances the desired number of instances
-     * @return true if the scaling operation was successful, false otherwise
+     * @return a future holding the scaling operation once accepted
      */
-    public boolean scaleServerInstancesLogic(int numInstances) {
-        return scaleInstances(ServerInstancesGroupName, numInstances);
+    public ApiFuture<ScalingOperation> scaleServerInstancesLogic(int numInstances) {
+        return resize(serverInstancesGroupName, numInstances);
     }
 
     /**
-     * Scales the image processing instances to the specified number.
+     * Scales the image processing instances to the specified number, without waiting for the resize.
      *
      * @param numInstances the desired number of instances
-     * @return true if the scaling operation was successful, false otherwise
+     * @return a future holding the scaling operation once accepted
      */
-    public boolean scaleImageProcessingInstancesLogic(int numInstances) {
-        return scaleInstances(ImageProcessingInstancesGroupName, numInstances);
+    public ApiFuture<ScalingOperation> scaleImageProcessingInstancesLogic(int numInstances) {
+        return resize(ImageProcessingInstancesGroupName, numInstances);
     }
 
+    /**
+     * Returns a scaling operation accepted by any server.
+     *
+     * @param operationId the ID of the operation
+     * @return the operation, or null if it is unknown
+     * @throws ExecutionException   if the operation cannot be read.
+     * @throws InterruptedException if the read is interrupted.
+     */
+    public ScalingOperation getOperation(String operationId) throws ExecutionException, InterruptedException {
+        return getOperationAsync(operationId).get();
+    }
 
     /**
-     * Scales the instances in the specified instance group to the desired number.
+     * Returns a scaling operation accepted by any server without waiting for the read, with the progress of
+     * its resize if it is running.
      *
-     * @param instanceGroupName the name of the instance group
-     * @param numInstances the desired number of instances
-     * @return true if the scaling operation was successful, false otherwise
+     * @param operationId the ID of the operation
+     * @return a future holding the operation, or null if it is unknown
+     */
+    public ApiFuture<ScalingOperation> getOperationAsync(String operationId) {
+        return ApiFutures.transformAsync(store.get(operationId), operation -> {
+            if (operation == null || operation.getState() == ScalingOperation.State.DONE) {
+                return ApiFutures.immediateFuture(operation == null ? null : operation.withProgress(100));
+            }
+            if (operation.getState() != ScalingOperation.State.RUNNING || operation.getComputeOperation() == null) {
+                return ApiFutures.immediateFuture(operation);
+            }
+            GetZoneOperationRequest request = GetZoneOperationRequest.newBuilder()
+                    .setProject(project)
+                    .setZone(zone)
+                    .setOperation(operation.getComputeOperation())
+                    .build();
+            ApiFuture<ScalingOperation> withProgress = ApiFutures.transform(
+                    zoneOperationsClient.getCallable().futureCall(request),
+                    computeOperation -> operation.withProgress(computeOperation.getProgress()),
+                    MoreExecutors.directExecutor());
+            // The progress is only informative, so the operation is still reported without it
+            return ApiFutures.catching(withProgress, Exception.class, e -> operation, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Returns the number of instances the image processing group is being sized to.
+     *
+     * @return the target size of the image processing group
      */
-    private boolean scaleInstances(String instanceGroupName, int numInstances){
-        try (InstanceGroupManagersClient managersClient = InstanceGroupManagersClient.create()) {
-            OperationFuture<Operation, Operation> result = managersClient.resizeAsync(project, zone, instanceGroupName, numInstances);
-
-            // Wait for the operation to complete and get the result
-            Operation operation = result.get();
-            if (operation != null) {
-                logger.log(Level.INFO, "Successfully resized instances to " + numInstances);
-                return true; // Operation completed successfully
-            } else {
-                logger.log(Level.WARNING, "Instance scaling failed");
-                return false; // Operation failed
+    public int getImageProcessingTargetSize() {
+        return managersClient.get(project, zone, ImageProcessingInstancesGroupName).getTargetSize();
+    }
+
+    /**
+     * Returns the number of instances of the image processing group that are running, leaving out those
+     * still booting or being deleted.
+     *
+     * @return the number of running instances of the image processing group
+     */
+    public int getImageProcessingRunningInstances() {
+        int running = 0;
+        for (ManagedInstance instance : managersClient.listManagedInstances(project, zone, ImageProcessingInstancesGroupName).iterateAll()) {
+            if (RUNNING.equals(instance.getInstanceStatus())) {
+                running++;
             }
-        } catch (IOException | InterruptedException | ExecutionException e) {
-            logger.log(Level.WARNING, "Instance scaling failed with exception: " + e.getMessage());
-            return false;
         }
+        return running;
     }
-}
 
+    /**
+     * Closes the clients shared by the resizes.
+     */
+    public void close() {
+        managersClient.close();
+        zoneOperationsClient.close();
+    }
+
+    private ApiFuture<ScalingOperation> resize(String instanceGroupName, int numInstances) {
+        return ApiFutures.transform(store.accept(instanceGroupName, numInstances), accepted -> {
+            if (accepted.isStarted()) {
+                start(accepted.getOperation());
+            }
+            return accepted.getOperation();
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Starts the resize of an operation marked as running in Firestore. This server then records its end,
+     * and starts the resize queued behind it.
+     */
+    private void start(ScalingOperation operation) {
+        OperationFuture<Operation, Operation> result;
+        try {
+            result = managersClient.resizeAsync(project, zone, operation.getGroupName(), operation.getTargetSize());
+        } catch (RuntimeException e) {
+            finished(operation, e);
+            return;
+        }
+        ApiFutures.addCallback(result.getInitialFuture(), new ApiFutureCallback<OperationSnapshot>() {
+            @Override
+            public void onFailure(Throwable t) {
+                // Reported by the result of the resize
+            }
+
+            @Override
+            public void onSuccess(OperationSnapshot snapshot) {
+                store.started(operation, snapshot.getName());
+            }
+        }, MoreExecutors.directExecutor());
+        ApiFutures.addCallback(result, new ApiFutureCallback<Operation>() {
+            @Override
+            public void onFailure(Throwable t) {
+                finished(operation, t);
+            }
+
+            @Override
+            public void onSuccess(Operation result) {
+                finished(operation, result.hasError() ? new IllegalStateException(result.getError().toString()) : null);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void finished(ScalingOperation operation, Throwable t) {
+        if (t == null) {
+            logger.log(Level.INFO, "Successfully resized " + operation.getGroupName() + " to " + operation.getTargetSize());
+        } else {
+            logger.log(Level.WARNING, "Instance scaling failed with exception: " + t.getMessage());
+        }
+        ApiFutures.addCallback(store.finished(operation, t == null ? null : t.getMessage()), new ApiFutureCallback<ScalingOperation>() {
+            @Override
+            public void onFailure(Throwable e) {
+                logger.log(Level.WARNING, "Failed to record the end of scaling operation " + operation.getId()
+                        + ", the next request for " + operation.getGroupName() + " takes over once it is abandoned: "
+                        + e.getMessage());
+            }
+
+            @Override
+            public void onSuccess(ScalingOperation next) {
+                if (next != null) {
+                    start(next);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,122 @@
+package google.scaling.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request to resize an instance group, tracked from the moment it is accepted until the group
+ * reaches its size, the resize fails, or a later request for the same group replaces it.
+ * Operations are kept in Firestore, so this is their state as last read by one server.
+ */
+public class ScalingOperation {
+    /**
+     * The time after which a queued or running operation whose state was not updated is considered abandoned,
+     * such as when the server running it stopped. The next request for its group then fails it and takes over.
+     */
+    public static final long ABANDONED_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * The state of a scaling operation.
+     */
+    public enum State {
+        /** Waiting for the running resize of the group to finish. */
+        QUEUED,
+        /** Resizing the group. */
+        RUNNING,
+        /** The group was resized. */
+        DONE,
+        /** The resize failed. */
+        FAILED,
+        /** Replaced by a later request for the same group before it started. */
+        SUPERSEDED
+    }
+
+    private final String id;
+    private final String groupName;
+    private final int targetSize;
+    private final State state;
+    private final String error;
+    private final String supersededBy;
+    private final String computeOperation;
+    private final long updatedMillis;
+    private final int progress;
+
+    ScalingOperation(String id, String groupName, int targetSize, State state, String error, String supersededBy,
+                     String computeOperation, long updatedMillis, int progress) {
+        this.id = id;
+        this.groupName = groupName;
+        this.targetSize = targetSize;
+        this.state = state;
+        this.error = error;
+        this.supersededBy = supersededBy;
+        this.computeOperation = computeOperation;
+        this.updatedMillis = updatedMillis;
+        this.progress = progress;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getGroupName() {
+        return groupName;
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the reason the resize failed.
+     *
+     * @return the error message, or null unless the operation failed.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the operation that replaced this one.
+     *
+     * @return the ID of the later operation, or null unless this operation was superseded.
+     */
+    public String getSupersededBy() {
+        return supersededBy;
+    }
+
+    /**
+     * Returns the progress of the resize as reported by Compute Engine when the operation was read.
+     *
+     * @return the progress from 0 to 100.
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * Checks whether the operation is still queued or running, and not abandoned.
+     *
+     * @param nowMillis the current time in milliseconds.
+     * @return true if the group may still be resized by this operation.
+     */
+    public boolean isPending(long nowMillis) {
+        return (state == State.QUEUED || state == State.RUNNING) && nowMillis - updatedMillis < ABANDONED_AFTER_MILLIS;
+    }
+
+    /**
+     * Returns the name of the Compute Engine operation resizing the group.
+     *
+     * @return the operation name, or null until the resize is started.
+     */
+    String getComputeOperation() {
+        return computeOperation;
+    }
+
+    ScalingOperation withProgress(int progress) {
+        return new ScalingOperation(id, groupName, targetSize, state, error, supersededBy, computeOperation,
+                updatedMillis, progress);
+    }
+}
@@ -0,0 +1,203 @@
+package google.scaling.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps the scaling operations and the resizes of each instance group in Firestore, so that every server
+ * reports the operations accepted by the others and the requests for a group coalesce whichever server
+ * receives them.
+ * <p>
+ * Operations are documents keyed by their ID. The document of a group holds its running resize and the one
+ * queued behind it, and is only changed in transactions, so requests accepted at once by two servers are still
+ * queued one behind the other. The server that started a resize starts the queued one once it finishes.
+ */
+class ScalingOperationStore {
+    private final Firestore db;
+    private final CollectionReference operations;
+    private final CollectionReference groups;
+
+    ScalingOperationStore(Firestore db) {
+        this.db = db;
+        this.operations = db.collection("ScalingOperations");
+        this.groups = db.collection("ScalingGroups");
+    }
+
+    /**
+     * Accepts a resize of a group. A request for the target already running or queued returns that operation
+     * instead of a new one. A new operation runs at once if the group is idle, or if its running resize was
+     * abandoned, and otherwise replaces the queued one. Either way, a queued operation is superseded by it.
+     *
+     * @param groupName  the name of the instance group.
+     * @param targetSize the number of instances to resize the group to.
+     * @return a future holding the operation, which the caller must start if it is {@link Accepted#isStarted}.
+     */
+    ApiFuture<Accepted> accept(String groupName, int targetSize) {
+        return db.runTransaction(transaction -> {
+            DocumentReference groupReference = groups.document(groupName);
+            DocumentSnapshot group = transaction.get(groupReference).get();
+            long now = System.currentTimeMillis();
+            String runningId = group.getString("runningOperationId");
+            String queuedId = group.getString("queuedOperationId");
+            boolean abandoned = runningId != null
+                    && now - millis(group.getTimestamp("runningUpdated")) >= ScalingOperation.ABANDONED_AFTER_MILLIS;
+
+            String existingId = null;
+            if (queuedId != null && !abandoned) {
+                existingId = targetSize == group.getLong("queuedTargetSize") ? queuedId : null;
+            } else if (runningId != null && !abandoned && targetSize == group.getLong("runningTargetSize")) {
+                existingId = runningId;
+            }
+            if (existingId != null) {
+                return new Accepted(toOperation(transaction.get(operations.document(existingId)).get()), false);
+            }
+
+            String id = UUID.randomUUID().toString();
+            boolean start = runningId == null || abandoned;
+            ScalingOperation operation = new ScalingOperation(id, groupName, targetSize,
+                    start ? ScalingOperation.State.RUNNING : ScalingOperation.State.QUEUED, null, null, null, now, 0);
+            transaction.set(operations.document(id), toDocument(operation));
+            if (abandoned) {
+                transaction.update(operations.document(runningId), "state", ScalingOperation.State.FAILED.name(),
+                        "error", "Abandoned by the server running it", "updated", Timestamp.now());
+            }
+            if (queuedId != null) {
+                transaction.update(operations.document(queuedId), "state", ScalingOperation.State.SUPERSEDED.name(),
+                        "supersededBy", id, "updated", Timestamp.now());
+            }
+            if (start) {
+                setGroup(transaction, groupReference, id, targetSize, null, 0);
+            } else {
+                setGroup(transaction, groupReference, runningId, group.getLong("runningTargetSize").intValue(),
+                        group.getTimestamp("runningUpdated"), id, targetSize);
+            }
+            return new Accepted(operation, start);
+        });
+    }
+
+    /**
+     * Records the Compute Engine operation resizing the group, so any server can report its progress.
+     *
+     * @param operation        the started operation.
+     * @param computeOperation the name of the Compute Engine operation.
+     * @return a future completed once recorded.
+     */
+    ApiFuture<?> started(ScalingOperation operation, String computeOperation) {
+        return operations.document(operation.getId()).update("computeOperation", computeOperation);
+    }
+
+    /**
+     * Records the end of a resize and, if the group has a queued resize, marks it as running.
+     *
+     * @param operation the finished operation.
+     * @param error     the reason the resize failed, or null if it succeeded.
+     * @return a future holding the queued operation, which the caller must start, or null if there is none.
+     */
+    ApiFuture<ScalingOperation> finished(ScalingOperation operation, String error) {
+        return db.runTransaction(transaction -> {
+            DocumentReference groupReference = groups.document(operation.getGroupName());
+            DocumentSnapshot group = transaction.get(groupReference).get();
+            transaction.update(operations.document(operation.getId()),
+                    "state", (error == null ? ScalingOperation.State.DONE : ScalingOperation.State.FAILED).name(),
+                    "error", error, "updated", Timestamp.now());
+            if (!operation.getId().equals(group.getString("runningOperationId"))) {
+                // Taken over by another request after being considered abandoned
+                return null;
+            }
+            String queuedId = group.getString("queuedOperationId");
+            if (queuedId == null) {
+                setGroup(transaction, groupReference, null, 0, null, 0);
+                return null;
+            }
+            int queuedTarget = group.getLong("queuedTargetSize").intValue();
+            transaction.update(operations.document(queuedId), "state", ScalingOperation.State.RUNNING.name(),
+                    "updated", Timestamp.now());
+            setGroup(transaction, groupReference, queuedId, queuedTarget, null, 0);
+            return new ScalingOperation(queuedId, operation.getGroupName(), queuedTarget,
+                    ScalingOperation.State.RUNNING, null, null, null, System.currentTimeMillis(), 0);
+        });
+    }
+
+    /**
+     * Reads an operation.
+     *
+     * @param operationId the ID of the operation.
+     * @return a future holding the operation, or null if it is unknown.
+     */
+    ApiFuture<ScalingOperation> get(String operationId) {
+        return ApiFutures.transform(operations.document(operationId).get(),
+                document -> document.exists() ? toOperation(document) : null, MoreExecutors.directExecutor());
+    }
+
+    private static void setGroup(Transaction transaction, DocumentReference group, String runningId, int runningTarget,
+                                 String queuedId, int queuedTarget) {
+        setGroup(transaction, group, runningId, runningTarget, runningId != null ? Timestamp.now() : null,
+                queuedId, queuedTarget);
+    }
+
+    private static void setGroup(Transaction transaction, DocumentReference group, String runningId, int runningTarget,
+                                 Timestamp runningUpdated, String queuedId, int queuedTarget) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("runningOperationId", runningId);
+        fields.put("runningTargetSize", runningTarget);
+        fields.put("runningUpdated", runningUpdated);
+        fields.put("queuedOperationId", queuedId);
+        fields.put("queuedTargetSize", queuedTarget);
+        transaction.set(group, fields);
+    }
+
+    private static Map<String, Object> toDocument(ScalingOperation operation) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("groupName", operation.getGroupName());
+        fields.put("targetSize", operation.getTargetSize());
+        fields.put("state", operation.getState().name());
+        fields.put("error", operation.getError());
+        fields.put("supersededBy", operation.getSupersededBy());
+        fields.put("computeOperation", operation.getComputeOperation());
+        fields.put("updated", Timestamp.now());
+        return fields;
+    }
+
+    private static ScalingOperation toOperation(DocumentSnapshot document) {
+        return new ScalingOperation(document.getId(), document.getString("groupName"),
+                document.getLong("targetSize").intValue(), ScalingOperation.State.valueOf(document.getString("state")),
+                document.getString("error"), document.getString("supersededBy"), document.getString("computeOperation"),
+                millis(document.getTimestamp("updated")), 0);
+    }
+
+    private static long millis(Timestamp timestamp) {
+        return timestamp == null ? 0 : timestamp.toDate().getTime();
+    }
+
+    /**
+     * An operation accepted for a group, and whether the caller must start its resize.
+     */
+    static class Accepted {
+        private final ScalingOperation operation;
+        private final boolean started;
+
+        Accepted(ScalingOperation operation, boolean started) {
+            this.operation = operation;
+            this.started = started;
+        }
+
+        ScalingOperation getOperation() {
+            return operation;
+        }
+
+        boolean isStarted() {
+            return started;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package google.cloudstorage;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UploadSessionTest {
+    private Storage storage;
+    private RecordingWriteChannel channel;
+    private CloudStorageService service;
+
+    @BeforeEach
+    void setUp() {
+        storage = mock(Storage.class);
+        channel = new RecordingWriteChannel();
+        when(storage.writer(any(BlobInfo.class))).thenReturn(channel);
+        service = new CloudStorageService(storage);
+    }
+
+    @Test
+    void chunksAreStreamedThroughOneUploadSession() throws IOException {
+        Blob blob = mock(Blob.class);
+        when(blob.getMediaLink()).thenReturn("https://storage/image");
+        when(storage.get(any(BlobId.class))).thenReturn(blob);
+
+        UploadSession session = service.openUpload("image");
+        for (int i = 0; i < 100; i++) {
+            session.append(ByteBuffer.wrap(("chunk" + i + ";").getBytes(StandardCharsets.UTF_8)));
+        }
+        String mediaLink = session.commit();
+
+        assertEquals("https://storage/image", mediaLink);
+        verify(storage, times(1)).writer(any(BlobInfo.class));
+        verify(storage, times(1)).get(BlobId.of(service.getBucketName(), "image"));
+        // Nothing is read back while the chunks are being uploaded
+        verify(storage, never()).readAllBytes(any(BlobId.class));
+        assertEquals(100, channel.writes);
+        assertTrue(channel.content().startsWith("chunk0;chunk1;"));
+        assertTrue(channel.content().endsWith("chunk99;"));
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    void abortClosesTheChannelAndDeletesThePartialBlob() throws IOException {
+        UploadSession session = service.openUpload("image");
+        session.append(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        session.abort();
+
+        assertFalse(channel.isOpen());
+        verify(storage).delete(eq(BlobId.of(service.getBucketName(), "image")));
+        assertThrows(IOException.class, () -> session.append(ByteBuffer.wrap(new byte[]{4})));
+    }
+
+    @Test
+    void abortAfterCommitDoesNothing() throws IOException {
+        when(storage.get(any(BlobId.class))).thenReturn(mock(Blob.class));
+        UploadSession session = service.openUpload("image");
+        session.commit();
+        session.abort();
+
+        verify(storage, never()).delete(any(BlobId.class));
+    }
+
+    /**
+     * Write channel keeping the bytes written to it in memory.
+     */
+    private static class RecordingWriteChannel implements WriteChannel {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private int writes;
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new IOException("closed");
+            }
+            writes++;
+            int length = src.remaining();
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            content.write(bytes);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void setChunkSize(int chunkSize) {
+        }
+
+        @Override
+        public RestorableState<WriteChannel> capture() {
+            throw new UnsupportedOperationException();
+        }
+
+        private String content() {
+            return content.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package google.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import google.firestore.models.ImageInformation;
+import google.firestore.models.TranslationInformation;
+import google.firestore.models.VisionInformation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FirestoreBatchWriterTest {
+    private final List<WriteBatch> batches = new ArrayList<>();
+    private final List<SettableApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+    private FirestoreBatchWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        Firestore db = mock(Firestore.class);
+        when(db.batch()).thenAnswer(invocation -> {
+            WriteBatch batch = mock(WriteBatch.class);
+            SettableApiFuture<List<WriteResult>> commit = SettableApiFuture.create();
+            when(batch.commit()).thenReturn(commit);
+            batches.add(batch);
+            commits.add(commit);
+            return batch;
+        });
+        writer = new FirestoreBatchWriter(db, collection(), collection(), new LabelIndex(db, collection()),
+                1, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    void postingsAreCommittedApartOnceTheImageIsSaved() throws Exception {
+        ImageInformation imageInfo = image("image-1", "Sky", "Cloud");
+
+        ApiFuture<Void> saved = writer.saveImageInfo(imageInfo);
+        assertEquals(1, batches.size());
+        verify(batches.get(0)).set(any(DocumentReference.class), any(ImageInformation.class));
+
+        commits.get(0).set(List.of());
+        assertNull(saved.get());
+        assertEquals(2, batches.size());
+        verify(batches.get(1), times(2)).set(any(DocumentReference.class), anyMap());
+    }
+
+    @Test
+    void failedIndexWriteDoesNotFailTheImage() throws Exception {
+        ApiFuture<Void> saved = writer.saveImageInfo(image("image-1", "Sky"));
+        commits.get(0).set(List.of());
+
+        commits.get(1).setException(new IllegalStateException("contention"));
+
+        assertNull(saved.get());
+    }
+
+    @Test
+    void imageThatFailedToSaveIsNotIndexed() {
+        ApiFuture<Void> saved = writer.saveImageInfo(image("image-1", "Sky"));
+
+        commits.get(0).setException(new IllegalStateException("unavailable"));
+
+        assertTrue(saved.isDone());
+        assertEquals(1, batches.size());
+    }
+
+    private static ImageInformation image(String requestId, String... labels) {
+        return new ImageInformation(requestId, Timestamp.now(), new TranslationInformation(List.of()),
+                new VisionInformation(List.of(labels)));
+    }
+
+    private static CollectionReference collection() {
+        CollectionReference collection = mock(CollectionReference.class);
+        when(collection.document(anyString())).thenAnswer(invocation -> mock(DocumentReference.class));
+        return collection;
+    }
+}
@@ -0,0 +1,149 @@
+package google.firestore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy getAllFiles query with the label index on a synthetic dataset of 30 days of
+ * images, with labels drawn from a skewed vocabulary.
+ * <p>
+ * The legacy query evaluates the date range and the label on every image document of the range, and
+ * a second label can only be checked on the documents it returns. The index reads the postings of
+ * the labels for each day of the range and merges them. Both are run in memory, so the scores compare
+ * the work of each plan rather than Firestore latency.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=google.firestore.LabelIndexBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelIndexBenchmark {
+    static final int DAYS = 30;
+    static final int LABELS = 200;
+    static final int LABELS_PER_IMAGE = 5;
+    static final int QUERY_DAYS = 7;
+
+    @Param({"1000", "10000"})
+    public int imagesPerDay;
+
+    @Param({"common", "rare", "commonAndRare"})
+    public String query;
+
+    private List<List<Image>> imagesByDay;
+    private List<Map<String, Set<String>>> postingsByDay;
+    private List<String> labels;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        imagesByDay = new ArrayList<>();
+        postingsByDay = new ArrayList<>();
+        for (int day = 0; day < DAYS; day++) {
+            List<Image> images = new ArrayList<>();
+            Map<String, Set<String>> postings = new HashMap<>();
+            for (int i = 0; i < imagesPerDay; i++) {
+                Image image = new Image("image-" + day + "-" + i, randomLabels(random));
+                images.add(image);
+                for (String label : image.labels) {
+                    postings.computeIfAbsent(label, l -> new HashSet<>()).add(image.requestId);
+                }
+            }
+            imagesByDay.add(images);
+            postingsByDay.add(postings);
+        }
+        switch (query) {
+            case "common":
+                labels = List.of(label(0));
+                break;
+            case "rare":
+                labels = List.of(label(150));
+                break;
+            default:
+                labels = List.of(label(0), label(150));
+        }
+    }
+
+    /**
+     * The legacy query: a range scan of the image documents, filtered on the first label and then on the others.
+     */
+    @Benchmark
+    public List<String> legacyQuery() {
+        TreeSet<String> result = new TreeSet<>();
+        for (int day = 0; day < QUERY_DAYS; day++) {
+            for (Image image : imagesByDay.get(day)) {
+                if (image.labels.containsAll(labels)) {
+                    result.add(image.requestId);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * The label index: one merge of the posting lists per day.
+     */
+    @Benchmark
+    public List<String> labelIndex() {
+        List<String> result = new ArrayList<>();
+        for (int day = 0; day < QUERY_DAYS; day++) {
+            List<Set<String>> postings = new ArrayList<>();
+            for (String label : labels) {
+                postings.add(postingsByDay.get(day).getOrDefault(label, Set.of()));
+            }
+            result.addAll(LabelIndexPager.mergePostings(postings, true));
+        }
+        return result;
+    }
+
+    private Set<String> randomLabels(Random random) {
+        Set<String> labels = new HashSet<>();
+        while (labels.size() < LABELS_PER_IMAGE) {
+            // Skewed so that a few labels such as "Sky" are on most images and most labels are rare
+            labels.add(label((int) (LABELS * Math.pow(random.nextDouble(), 3))));
+        }
+        return labels;
+    }
+
+    private static String label(int i) {
+        return "label" + i;
+    }
+
+    private static class Image {
+        private final String requestId;
+        private final Set<String> labels;
+
+        private Image(String requestId, Set<String> labels) {
+            this.requestId = requestId;
+            this.labels = labels;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LabelIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
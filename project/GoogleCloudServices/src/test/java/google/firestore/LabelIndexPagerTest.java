@@ -0,0 +1,76 @@
+package google.firestore;
+
+import com.google.api.core.ApiFutures;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LabelIndexPagerTest {
+    private static final LocalDate DAY1 = LocalDate.of(2024, 5, 1);
+    private static final LocalDate DAY2 = DAY1.plusDays(1);
+    private static final LocalDate DAY3 = DAY1.plusDays(2);
+
+    private final Map<String, List<String>> postings = new HashMap<>();
+    private LabelIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = mock(LabelIndex.class);
+        when(index.postingsAsync(anyString(), any(LocalDate.class))).thenAnswer(invocation -> ApiFutures.immediateFuture(
+                postings.getOrDefault(invocation.getArgument(0) + "_" + invocation.getArgument(1), List.of())));
+    }
+
+    @Test
+    void busyDayIsSplitInPagesOfThePageSize() throws ExecutionException, InterruptedException {
+        postings("cat", DAY1, "c", "a", "e", "b", "d");
+        postings("cat", DAY3, "f");
+
+        FileNamePager pager = new LabelIndexPager(index, DAY1, DAY3.plusDays(1), List.of("cat"), false, 2);
+
+        assertEquals(List.of("a", "b"), pager.nextPage());
+        assertEquals(List.of("c", "d"), pager.nextPage());
+        assertEquals(List.of("e"), pager.nextPage());
+        // The empty second day is skipped
+        assertEquals(List.of("f"), pager.nextPage());
+        assertFalse(pager.hasNext());
+        assertTrue(pager.nextPage().isEmpty());
+    }
+
+    @Test
+    void matchAllIntersectsAndMatchAnyUnitesTheLabels() throws ExecutionException, InterruptedException {
+        postings("cat", DAY1, "a", "b", "c");
+        postings("dog", DAY1, "b", "c", "d");
+
+        assertEquals(List.of("b", "c"),
+                new LabelIndexPager(index, DAY1, DAY2, List.of("cat", "dog"), true, 10).nextPage());
+        assertEquals(List.of("a", "b", "c", "d"),
+                new LabelIndexPager(index, DAY1, DAY2, List.of("cat", "dog"), false, 10).nextPage());
+    }
+
+    @Test
+    void mergePostings() {
+        List<Set<String>> postings = List.of(Set.of("c", "a", "b"), Set.of("b", "c", "d"), Set.of("c", "e"));
+
+        assertEquals(List.of("c"), LabelIndexPager.mergePostings(postings, true));
+        assertEquals(List.of("a", "b", "c", "d", "e"), LabelIndexPager.mergePostings(postings, false));
+        assertTrue(LabelIndexPager.mergePostings(List.of(), true).isEmpty());
+    }
+
+    private void postings(String label, LocalDate day, String... requestIds) {
+        postings.put(label + "_" + day, List.of(requestIds));
+    }
+}
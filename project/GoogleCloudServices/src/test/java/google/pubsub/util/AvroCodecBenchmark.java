@@ -0,0 +1,79 @@
+package google.pubsub.util;
+
+import com.google.protobuf.ByteString;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy JSON path of the pipeline messages, which built a reader and a decoder for every
+ * message, with the reusable codec in both encodings.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=google.pubsub.util.AvroCodecBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvroCodecBenchmark {
+    private AvroCodec codec;
+    private GenericRecord record;
+    private ByteString json;
+    private ByteString binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = new AvroCodec(AvroCodecTest.SCHEMA);
+        record = AvroCodecTest.sampleRecord();
+        json = ByteString.copyFromUtf8(record.toString());
+        binary = codec.encode(record);
+    }
+
+    @Benchmark
+    public ByteString encodeLegacyJson() {
+        return ByteString.copyFromUtf8(record.toString());
+    }
+
+    @Benchmark
+    public ByteString encodeBinary() throws IOException {
+        return codec.encode(record);
+    }
+
+    @Benchmark
+    public GenericRecord decodeLegacyJson() throws IOException {
+        GenericDatumReader<GenericRecord> reader = new GenericDatumReader<>(AvroCodecTest.SCHEMA);
+        return reader.read(null, DecoderFactory.get().jsonDecoder(AvroCodecTest.SCHEMA, json.toStringUtf8()));
+    }
+
+    @Benchmark
+    public GenericRecord decodeJson() throws IOException {
+        return codec.decode(json, AvroCodec.CONTENT_TYPE_JSON);
+    }
+
+    @Benchmark
+    public GenericRecord decodeBinary() throws IOException {
+        return codec.decode(binary, AvroCodec.CONTENT_TYPE_BINARY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AvroCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
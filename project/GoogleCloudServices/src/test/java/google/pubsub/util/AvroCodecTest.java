@@ -0,0 +1,71 @@
+package google.pubsub.util;
+
+import com.google.protobuf.ByteString;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvroCodecTest {
+    static final Schema SCHEMA;
+
+    static {
+        try {
+            SCHEMA = new Schema.Parser().parse(AvroCodecTest.class.getResourceAsStream("/google/pubsub/messageSchema.avsc"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a message as published by ServiceSF: the media link of the blob as ID, the bucket and the blob name.
+     */
+    static GenericRecord sampleRecord() {
+        GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("id", "https://storage.googleapis.com/download/storage/v1/b/cn-tp-g09-bucket/o/"
+                + "cn-tp-g09-bucket-image-4f1c2d7e-9a3b-4c8e-b5d6-1e2f3a4b5c6d?generation=1717171717171717&alt=media");
+        record.put("bucketName", "cn-tp-g09-bucket");
+        record.put("blobName", "cn-tp-g09-bucket-image-4f1c2d7e-9a3b-4c8e-b5d6-1e2f3a4b5c6d");
+        return record;
+    }
+
+    @Test
+    void binaryRoundTrip() throws IOException {
+        AvroCodec codec = new AvroCodec(SCHEMA);
+        GenericRecord record = sampleRecord();
+
+        GenericRecord decoded = codec.decode(codec.encode(record), AvroCodec.CONTENT_TYPE_BINARY);
+
+        assertEquals(record.toString(), decoded.toString());
+    }
+
+    @Test
+    void legacyJsonMessagesAreStillDecoded() throws IOException {
+        AvroCodec codec = new AvroCodec(SCHEMA);
+        GenericRecord record = sampleRecord();
+        ByteString json = ByteString.copyFromUtf8(record.toString());
+
+        assertEquals(record.toString(), codec.decode(json, null).toString());
+        assertEquals(record.toString(), codec.decode(json, AvroCodec.CONTENT_TYPE_JSON).toString());
+    }
+
+    @Test
+    void binaryEncodingDropsTheFieldNames() throws IOException {
+        AvroCodec codec = new AvroCodec(SCHEMA);
+        GenericRecord record = sampleRecord();
+
+        int binary = codec.encode(record).size();
+        int json = ByteString.copyFromUtf8(record.toString()).size();
+
+        // The strings dominate a message, so the saving is the field names and JSON punctuation only
+        assertEquals(248, binary);
+        assertEquals(288, json);
+        assertTrue(binary < json);
+    }
+}
@@ -0,0 +1,127 @@
+package google.scaling.autoscaler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AutoscalingPolicyTest {
+    private static final long INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long BOOT_MILLIS = TimeUnit.SECONDS.toMillis(90);
+    private static final long COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(120);
+    // Messages processed per second by one worker in the simulated group
+    private static final double CAPACITY = 10;
+
+    private static AutoscalingPolicy policy(double initialCapacity) {
+        return new AutoscalingPolicy(1, 30, initialCapacity, 0.8, 0.2, 300,
+                COOLDOWN_MILLIS, TimeUnit.MINUTES.toMillis(10));
+    }
+
+    @Test
+    void capacityIsMeasuredOnRunningInstancesOnly() {
+        AutoscalingPolicy policy = policy(CAPACITY);
+
+        // 10 instances requested but only 2 booted, both busy with a backlog
+        policy.recommend(new LoadSample(0, 1000, 2 * CAPACITY, 10, 2));
+
+        assertEquals(CAPACITY, policy.getInstanceCapacity(), 1e-9);
+    }
+
+    @Test
+    void capacityIsNotMeasuredDuringTheCooldown() {
+        AutoscalingPolicy policy = policy(CAPACITY);
+        int target = policy.recommend(new LoadSample(0, 100_000, 20, 2, 2));
+        assertTrue(target > 2);
+
+        // The rate still reflects the instances before the change
+        policy.recommend(new LoadSample(COOLDOWN_MILLIS / 2, 100_000, 5, target, 2));
+        assertEquals(CAPACITY, policy.getInstanceCapacity(), 1e-9);
+
+        policy.recommend(new LoadSample(COOLDOWN_MILLIS, 100_000, 5, target, 2));
+        assertTrue(policy.getInstanceCapacity() < CAPACITY);
+    }
+
+    /**
+     * Replays a trace of a quiet hour, a ten-minute burst and a return to quiet against a simulated group whose
+     * instances take a while to boot, starting from an estimate of the capacity at half the real one.
+     */
+    @Test
+    void replayedBurstIsDrainedWithoutFlapping() {
+        AutoscalingPolicy policy = policy(CAPACITY / 2);
+        SimulatedGroup group = new SimulatedGroup(2);
+        int changes = 0;
+        double lastCapacity = policy.getInstanceCapacity();
+        long peakBacklog = 0;
+
+        for (long time = 0; time < TimeUnit.MINUTES.toMillis(90); time += INTERVAL_MILLIS) {
+            double arrivalRate = time >= TimeUnit.MINUTES.toMillis(30) && time < TimeUnit.MINUTES.toMillis(40) ? 150 : 8;
+            LoadSample sample = group.advance(time, arrivalRate);
+            peakBacklog = Math.max(peakBacklog, sample.getBacklog());
+
+            int target = policy.recommend(sample);
+            if (target != sample.getCurrentInstances()) {
+                changes++;
+                group.resize(time, target);
+            }
+            // Booting instances never drag the estimate below the capacity of the busy ones
+            assertTrue(policy.getInstanceCapacity() >= lastCapacity - 1e-9, "capacity dropped at " + time);
+            assertTrue(policy.getInstanceCapacity() <= CAPACITY + 1e-9, "capacity overestimated at " + time);
+            lastCapacity = policy.getInstanceCapacity();
+        }
+
+        assertTrue(peakBacklog > 0);
+        assertEquals(0, group.backlog);
+        assertTrue(policy.getInstanceCapacity() > 0.9 * CAPACITY, "capacity " + policy.getInstanceCapacity());
+        // The quiet load needs one or two instances once the burst is drained
+        assertTrue(group.target <= 2, "instances " + group.target);
+        assertTrue(changes <= 6, changes + " resizes");
+    }
+
+    /**
+     * An instance group whose instances run CAPACITY messages per second once booted.
+     */
+    private static class SimulatedGroup {
+        private final Deque<Long> booting = new ArrayDeque<>();
+        private int running;
+        private int target;
+        private long backlog;
+
+        private SimulatedGroup(int instances) {
+            this.running = instances;
+            this.target = instances;
+        }
+
+        /**
+         * Processes the messages of one interval with the instances running during it.
+         */
+        LoadSample advance(long time, double arrivalRate) {
+            double seconds = INTERVAL_MILLIS / 1000.0;
+            long available = backlog + Math.round(arrivalRate * seconds);
+            long processed = Math.min(available, Math.round(running * CAPACITY * seconds));
+            backlog = available - processed;
+            LoadSample sample = new LoadSample(time, backlog, processed / seconds, target, running);
+            while (!booting.isEmpty() && booting.peekFirst() <= time) {
+                booting.pollFirst();
+                running++;
+            }
+            return sample;
+        }
+
+        void resize(long time, int instances) {
+            for (int i = target; i < instances; i++) {
+                booting.addLast(time + BOOT_MILLIS);
+            }
+            for (int i = instances; i < target; i++) {
+                // Instances still booting are deleted first
+                if (booting.pollLast() == null) {
+                    running--;
+                }
+            }
+            target = instances;
+        }
+    }
+}
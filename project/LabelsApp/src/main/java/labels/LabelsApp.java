@@ -2,25 +2,27 @@ package labels;
 
 import com.google.cloud.Timestamp;
 import com.google.protobuf.ByteString;
+import google.firestore.FirestoreBatchWriter;
 import google.firestore.FirestoreService;
-import google.firestore.models.ImageInformation;
-import google.firestore.models.TranslationInformation;
-import google.firestore.models.VisionInformation;
-import google.pubsub.PubSubService;
+import google.metrics.MetricsRegistry;
+import google.metrics.MetricsServer;
+import google.pubsub.service.PubSubService;
+import google.pubsub.util.AvroCodec;
+import labels.apiservice.ApiServices;
+import labels.apiservice.ImageRef;
+import labels.apiservice.LabelTranslator;
+import labels.apiservice.TranslationCache;
+import labels.batching.AnnotationBatcher;
+import labels.config.LabelsConfig;
+import labels.pipeline.LabelsPipeline;
+import labels.pipeline.Stage;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
 
 import java.io.IOException;
-import java.util.List;
+import java.nio.file.Paths;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-
-import static labels.apiservice.ApiServices.detectLabels;
-import static labels.apiservice.ApiServices.translateLabels;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Application to process messages containing image data and save information to Firestore.
@@ -28,29 +30,53 @@ import static labels.apiservice.ApiServices.translateLabels;
 public class LabelsApp {
     private final FirestoreService firestoreService;
     private final PubSubService pubSubService;
-    private final Schema schema;
+    private final AvroCodec avroCodec;
+    private final FirestoreBatchWriter batchWriter;
+    private final LabelsPipeline pipeline;
 
     /**
-     * Constructor to initialize FirestoreService, PubSubService, and Avro schema.
+     * Constructor to initialize FirestoreService, PubSubService, the Avro codec and the
+     * pipeline detecting, translating and storing the labels of each image, and to start the pipeline.
+     *
+     * @param config            Configuration of the application.
+     * @param annotationBatcher Batcher used to detect the labels of each image.
+     * @param labelTranslator   Service used to translate the detected labels.
      */
-    public LabelsApp() {
+    public LabelsApp(LabelsConfig config, AnnotationBatcher annotationBatcher, LabelTranslator labelTranslator) {
         try {
             this.firestoreService = new FirestoreService();
+            this.batchWriter = config.getFirestoreBatchMaxWrites() > 1
+                    ? firestoreService.newBatchWriter(config.getFirestoreBatchMaxWrites(), config.getFirestoreBatchMaxDelayMillis())
+                    : null;
             this.pubSubService = new PubSubService();
-            this.schema = new Schema.Parser().parse(getClass().getResourceAsStream("/labels/messageSchema.avsc"));
+            Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("/labels/messageSchema.avsc"));
+            this.avroCodec = new AvroCodec(schema);
         } catch (IOException e) {
             throw new IllegalStateException("Failed to read schema file.");
         }
+        this.pipeline = new LabelsPipeline(config, annotationBatcher, labelTranslator, imageInformation ->
+                batchWriter != null
+                        ? batchWriter.saveImageInfo(imageInformation)
+                        : firestoreService.saveImageInfoAsync(imageInformation));
+        pipeline.start();
     }
 
     /**
      * Method to subscribe to Pub/Sub messages and process them.
+     * Each message is decoded on the subscriber thread and handed to the pipeline, which acks or nacks it.
+     * Messages of duplicate submissions are acked without being processed.
+     * No more messages are leased than the pipeline can hold, so its stages bound the work in flight.
      */
     public void checkSub() {
         pubSubService.subscribeMessageLabels((message, consumer) -> {
+            // The server already linked a duplicate to the labels of the original image
+            if (message.getAttributesMap().containsKey(PubSubService.DUPLICATE_OF_ATTRIBUTE)) {
+                consumer.ack();
+                return;
+            }
             ByteString data = message.getData();
             try {
-                GenericRecord record = deserializeAvroSchema(data);
+                GenericRecord record = avroCodec.decode(data, message.getAttributesMap().get(AvroCodec.CONTENT_TYPE_ATTRIBUTE));
                 String id = record.get("id").toString();
                 String bucketName = record.get("bucketName").toString();
                 String blobName = record.get("blobName").toString();
@@ -59,32 +85,50 @@ public class LabelsApp {
 
                 Timestamp firestoreTimestamp = Timestamp.parseTimestamp(timestamp);
 
-                List<String> labels = detectLabels(bucketName, blobName);
-                List<String> labelsTranslated = translateLabels(labels);
-                TranslationInformation translationInformation = new TranslationInformation(labelsTranslated);
-                VisionInformation visionInformation = new VisionInformation(labels);
-                ImageInformation imageInformation = new ImageInformation(id, firestoreTimestamp, translationInformation, visionInformation);
-                firestoreService.saveImageInfo(imageInformation);
-                consumer.ack();
-            } catch (IOException | ExecutionException | InterruptedException e) {
+                pipeline.submit(id, firestoreTimestamp, new ImageRef(bucketName, blobName), consumer);
+            } catch (IOException e) {
                 consumer.nack();
                 System.err.println("Error: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                consumer.nack();
             }
-        });
+        }, pipeline.getCapacity());
     }
 
     /**
-     * Method to deserialize Avro schema from ByteString.
+     * Returns the pipeline processing the images, to inspect the queue depth and service time of its stages.
      *
-     * @param data ByteString containing Avro data.
-     * @return Deserialized Avro record.
-     * @throws IOException if an error occurs during deserialization.
+     * @return the pipeline.
      */
-    private GenericRecord deserializeAvroSchema(ByteString data) throws IOException {
-        String dataString = data.toStringUtf8();
-        DatumReader<GenericRecord> reader = new GenericDatumReader<>(schema);
-        Decoder decoder = DecoderFactory.get().jsonDecoder(schema, dataString);
-        return reader.read(null, decoder);
+    public LabelsPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Registers the queue depth, busy workers and service time of each stage of the pipeline as gauges.
+     *
+     * @param registry the registry to register the gauges in.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        for (Stage<?> stage : pipeline.getStages()) {
+            String name = stage.getName();
+            registry.gauge("pipeline_queue_depth", "Items waiting for a worker of the stage", stage::getQueueDepth, "stage", name);
+            registry.gauge("pipeline_busy_workers", "Workers of the stage processing an item", stage::getBusyWorkers, "stage", name);
+            registry.gauge("pipeline_processed_items", "Items processed by the stage", stage::getProcessed, "stage", name);
+            registry.gauge("pipeline_service_milliseconds", "Average time a worker of the stage spends on an item",
+                    stage::getAverageServiceMillis, "stage", name);
+        }
+    }
+
+    /**
+     * Method to process the images already accepted and commit the pending Firestore writes.
+     */
+    public void close() {
+        pipeline.close();
+        if (batchWriter != null) {
+            batchWriter.close();
+        }
     }
 
     /**
@@ -92,8 +136,35 @@ public class LabelsApp {
      *
      * @param args Command-line arguments (not used).
      */
-    public static void main(String[] args) {
-        LabelsApp app = new LabelsApp();
+    public static void main(String[] args) throws IOException {
+        LabelsConfig config = new LabelsConfig();
+        String cacheFile = config.getTranslationCacheFile();
+        TranslationCache translationCache = new TranslationCache(
+                config.getTranslationCacheMaxEntries(),
+                TimeUnit.HOURS.toMillis(config.getTranslationCacheTtlHours()),
+                cacheFile.isEmpty() ? null : Paths.get(cacheFile));
+        translationCache.load();
+        ApiServices apiServices = new ApiServices(config.getSourceLanguage(), config.getTargetLanguage(), translationCache);
+        AnnotationBatcher annotationBatcher = new AnnotationBatcher(
+                apiServices, config.getVisionBatchMaxSize(), config.getVisionBatchWindowMillis());
+
+        LabelsApp app = new LabelsApp(config, annotationBatcher, apiServices);
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        app.registerMetrics(registry);
+        registry.gauge("translation_cache_hits", "Labels translated from the cache", translationCache::getHits);
+        registry.gauge("translation_cache_misses", "Labels missing from the translation cache", translationCache::getMisses);
+        MetricsServer metricsServer = config.getMetricsPort() > 0
+                ? new MetricsServer(config.getMetricsAddress(), config.getMetricsPort(), registry)
+                : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // The pipeline waits on the batcher, so it is drained before the batcher stops
+            app.close();
+            annotationBatcher.close();
+            apiServices.close();
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+        }));
         app.checkSub();
         // Keep the application running to listen for messages
         while (true) {
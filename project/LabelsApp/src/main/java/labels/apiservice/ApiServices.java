@@ -4,15 +4,49 @@ import com.google.cloud.translate.Translate;
 import com.google.cloud.translate.TranslateOptions;
 import com.google.cloud.translate.Translation;
 import com.google.cloud.vision.v1.*;
+import google.metrics.CallTimer;
+import google.metrics.MetricsRegistry;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Class that provides access to Google Cloud Apis.
+ * The Vision and Translate clients are created once and reused for every image,
+ * so an instance should be kept for the life of the application and closed on shutdown.
  */
-public class ApiServices {
+public class ApiServices implements LabelDetector, LabelTranslator, AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ApiServices.class.getName());
+    private static final CallTimer VISION = MetricsRegistry.getDefault()
+            .timer("vision_annotate", "Vision API batch annotations");
+    private static final CallTimer TRANSLATE = MetricsRegistry.getDefault()
+            .timer("translate", "Translate API calls for the labels missing from the cache");
+    private final ImageAnnotatorClient annotatorClient;
+    private final Translate translateService;
+    private final TranslationCache translationCache;
+    private final String sourceLanguage;
+    private final String targetLanguage;
+
+    /**
+     * Constructs an ApiServices, creating the Vision and Translate clients.
+     *
+     * @param sourceLanguage   Language of the detected labels.
+     * @param targetLanguage   Language the labels are translated to.
+     * @param translationCache Cache of previously translated labels.
+     * @throws IOException if the Vision client cannot be created.
+     */
+    public ApiServices(String sourceLanguage, String targetLanguage, TranslationCache translationCache) throws IOException {
+        this.annotatorClient = ImageAnnotatorClient.create();
+        this.translateService = TranslateOptions.getDefaultInstance().getService();
+        this.translationCache = translationCache;
+        this.sourceLanguage = sourceLanguage;
+        this.targetLanguage = targetLanguage;
+    }
 
     /**
      * Method to detect labels in an image using the Vision API.
@@ -22,58 +56,106 @@ public class ApiServices {
      * @return List of detected labels.
      * @throws IOException if an error occurs during the detection process.
      */
-    public static List<String> detectLabels(String bucketName, String blobName) throws IOException {
-        List<AnnotateImageRequest> requests = new ArrayList<>();
-        List<String> labels = new ArrayList<>();
-
-        String gsURI = String.format("gs://%s/%s", bucketName, blobName);
+    @Override
+    public List<String> detectLabels(String bucketName, String blobName) throws IOException {
+        return detectLabels(List.of(new ImageRef(bucketName, blobName))).get(0);
+    }
 
-        Image img = Image.newBuilder()
-                .setSource(ImageSource.newBuilder().setImageUri(gsURI).build())
-                .build();
+    /**
+     * Method to detect labels in several images with a single Vision API batch request.
+     *
+     * @param images The images to annotate.
+     * @return The labels of each image, empty for the images the Vision API failed to annotate.
+     * @throws IOException if an error occurs during the detection process.
+     */
+    @Override
+    public List<List<String>> detectLabels(List<ImageRef> images) throws IOException {
+        List<AnnotateImageRequest> requests = new ArrayList<>();
 
         Feature feat = Feature.newBuilder().setType(Feature.Type.LABEL_DETECTION).build();
 
-        AnnotateImageRequest request =
-                AnnotateImageRequest.newBuilder().addFeatures(feat).setImage(img).build();
-        requests.add(request);
+        for (ImageRef image : images) {
+            Image img = Image.newBuilder()
+                    .setSource(ImageSource.newBuilder().setImageUri(image.toGsUri()).build())
+                    .build();
 
-        // Initialize client that will be used to send requests. This client only needs to be created
-        // once, and can be reused for multiple requests. After completing all of your requests, call
-        // the "close" method on the client to safely clean up any remaining background resources.
-        try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
-            BatchAnnotateImagesResponse response = client.batchAnnotateImages(requests);
-            List<AnnotateImageResponse> responses = response.getResponsesList();
-            for (AnnotateImageResponse res : responses) {
-                if (res.hasError()) {
-                    System.out.format("Error: %s%n", res.getError().getMessage());
-                } else {
-                    for (EntityAnnotation annotation : res.getLabelAnnotationsList()) {
-                        labels.add(annotation.getDescription());
-                    }
+            AnnotateImageRequest request =
+                    AnnotateImageRequest.newBuilder().addFeatures(feat).setImage(img).build();
+            requests.add(request);
+        }
+
+        BatchAnnotateImagesResponse response;
+        long start = System.nanoTime();
+        try {
+            response = annotatorClient.batchAnnotateImages(requests);
+        } catch (RuntimeException e) {
+            VISION.stop(start, true);
+            throw e;
+        }
+        VISION.stop(start, false);
+        List<List<String>> results = new ArrayList<>();
+        for (AnnotateImageResponse res : response.getResponsesList()) {
+            if (res.hasError()) {
+                // Retrying would fail the same way, so the image is stored without labels
+                logger.log(Level.WARNING, "Vision API error: " + res.getError().getMessage());
+                results.add(new ArrayList<>());
+            } else {
+                List<String> labels = new ArrayList<>();
+                for (EntityAnnotation annotation : res.getLabelAnnotationsList()) {
+                    labels.add(annotation.getDescription());
                 }
+                results.add(labels);
             }
         }
-        return labels;
+        return results;
     }
 
     /**
      * Method to translate labels from one language to another.
+     * Cached labels are served from the translation cache and the remaining ones are translated
+     * with a single batched call to the Translate API.
      *
      * @param labels List of labels to translate.
      * @return Translated labels.
      */
-    public static List<String> translateLabels(List<java.lang.String> labels) {
-        List<java.lang.String> labelsTranslated = null;
+    @Override
+    public List<String> translateLabels(List<String> labels) {
+        List<String> labelsTranslated = new ArrayList<>();
         try {
-            Translate translateService = TranslateOptions.getDefaultInstance().getService();
-            labelsTranslated = new ArrayList<>();
-            for (java.lang.String label : labels) {
-                Translation translation = translateService.translate(
-                        label,
-                        Translate.TranslateOption.sourceLanguage("en"),
-                        Translate.TranslateOption.targetLanguage("pt"));
-                labelsTranslated.add(translation.getTranslatedText());
+            Map<String, String> translations = new HashMap<>();
+            List<String> missing = new ArrayList<>();
+            for (String label : labels) {
+                if (translations.containsKey(label) || missing.contains(label)) {
+                    continue;
+                }
+                String cached = translationCache.get(sourceLanguage, targetLanguage, label);
+                if (cached != null) {
+                    translations.put(label, cached);
+                } else {
+                    missing.add(label);
+                }
+            }
+            if (!missing.isEmpty()) {
+                List<Translation> results;
+                long start = System.nanoTime();
+                try {
+                    results = translateService.translate(
+                            missing,
+                            Translate.TranslateOption.sourceLanguage(sourceLanguage),
+                            Translate.TranslateOption.targetLanguage(targetLanguage));
+                } catch (RuntimeException e) {
+                    TRANSLATE.stop(start, true);
+                    throw e;
+                }
+                TRANSLATE.stop(start, false);
+                for (int i = 0; i < missing.size(); i++) {
+                    String translated = results.get(i).getTranslatedText();
+                    translations.put(missing.get(i), translated);
+                    translationCache.put(sourceLanguage, targetLanguage, missing.get(i), translated);
+                }
+            }
+            for (String label : labels) {
+                labelsTranslated.add(translations.get(label));
             }
         } catch (Exception ex) {
             System.err.println("Error: " + ex.getMessage());
@@ -81,4 +163,15 @@ public class ApiServices {
         return labelsTranslated;
     }
 
+    /**
+     * Closes the Vision client, releasing its background resources, and persists the translation cache.
+     */
+    @Override
+    public void close() {
+        annotatorClient.close();
+        translationCache.save();
+        logger.log(Level.INFO, "Translation cache hits: " + translationCache.getHits()
+                + ", misses: " + translationCache.getMisses());
+    }
+
 }
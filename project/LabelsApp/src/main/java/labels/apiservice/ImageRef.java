@@ -0,0 +1,31 @@
+package labels.apiservice;
+
+/**
+ * Reference to an image stored in Cloud Storage.
+ */
+public class ImageRef {
+    private final String bucketName;
+    private final String blobName;
+
+    public ImageRef(String bucketName, String blobName) {
+        this.bucketName = bucketName;
+        this.blobName = blobName;
+    }
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public String getBlobName() {
+        return blobName;
+    }
+
+    /**
+     * Returns the Cloud Storage URI of the image.
+     *
+     * @return the gs:// URI of the image.
+     */
+    public String toGsUri() {
+        return String.format("gs://%s/%s", bucketName, blobName);
+    }
+}
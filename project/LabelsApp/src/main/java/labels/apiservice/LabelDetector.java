@@ -0,0 +1,38 @@
+package labels.apiservice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects the labels of an image stored in Cloud Storage.
+ */
+public interface LabelDetector {
+
+    /**
+     * Detects the labels of an image.
+     *
+     * @param bucketName Name of the Cloud Storage bucket containing the image.
+     * @param blobName   Name of the image blob.
+     * @return List of detected labels.
+     * @throws IOException if an error occurs during the detection process.
+     */
+    List<String> detectLabels(String bucketName, String blobName) throws IOException;
+
+    /**
+     * Detects the labels of several images. Implementations backed by a batch API should
+     * override this to annotate all images in a single call.
+     *
+     * @param images The images to annotate.
+     * @return The labels of each image, in the order of the given images. An entry is empty
+     * if the labels of that image could not be detected.
+     * @throws IOException if an error occurs for the whole batch.
+     */
+    default List<List<String>> detectLabels(List<ImageRef> images) throws IOException {
+        List<List<String>> results = new ArrayList<>();
+        for (ImageRef image : images) {
+            results.add(detectLabels(image.getBucketName(), image.getBlobName()));
+        }
+        return results;
+    }
+}
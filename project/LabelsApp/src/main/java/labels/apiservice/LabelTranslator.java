@@ -0,0 +1,17 @@
+package labels.apiservice;
+
+import java.util.List;
+
+/**
+ * Translates image labels from one language to another.
+ */
+public interface LabelTranslator {
+
+    /**
+     * Translates labels from one language to another.
+     *
+     * @param labels List of labels to translate.
+     * @return Translated labels, in the same order as the given labels.
+     */
+    List<String> translateLabels(List<String> labels);
+}
@@ -0,0 +1,175 @@
+package labels.apiservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded LRU cache of label translations with a time to live, keyed by
+ * (source language, target language, label).
+ * The cache can be saved to and loaded from a local file so that a restarted application begins warm.
+ */
+public class TranslationCache {
+    private static final Logger logger = Logger.getLogger(TranslationCache.class.getName());
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path file;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs an empty TranslationCache.
+     *
+     * @param maxEntries maximum number of translations kept, the least recently used are evicted first.
+     * @param ttlMillis  time in milliseconds after which a translation is fetched again.
+     * @param file       file where the cache is persisted, or null to keep it in memory only.
+     */
+    public TranslationCache(int maxEntries, long ttlMillis, Path file) {
+        this(maxEntries, ttlMillis, file, System::currentTimeMillis);
+    }
+
+    TranslationCache(int maxEntries, long ttlMillis, Path file, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.file = file;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > TranslationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached translation of a label.
+     *
+     * @param sourceLanguage the language of the label.
+     * @param targetLanguage the language of the translation.
+     * @param label          the label to translate.
+     * @return the translation, or null if it is not cached or has expired.
+     */
+    public synchronized String get(String sourceLanguage, String targetLanguage, String label) {
+        String key = key(sourceLanguage, targetLanguage, label);
+        Entry entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.createdAt > ttlMillis) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.translation;
+    }
+
+    /**
+     * Caches the translation of a label.
+     *
+     * @param sourceLanguage the language of the label.
+     * @param targetLanguage the language of the translation.
+     * @param label          the translated label.
+     * @param translation    the translation.
+     */
+    public synchronized void put(String sourceLanguage, String targetLanguage, String label, String translation) {
+        entries.put(key(sourceLanguage, targetLanguage, label), new Entry(translation, clock.getAsLong()));
+    }
+
+    /**
+     * Loads the translations persisted in the cache file, skipping those already expired.
+     * Does nothing if the cache has no file or the file does not exist yet.
+     */
+    public synchronized void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to load translation cache: " + e.getMessage());
+            return;
+        }
+        long now = clock.getAsLong();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            int separator = value.indexOf('|');
+            long createdAt = separator < 0 ? -1 : parseCreatedAt(value.substring(0, separator));
+            if (createdAt < 0) {
+                logger.log(Level.WARNING, "Skipping malformed cached translation of " + key);
+                continue;
+            }
+            if (now - createdAt <= ttlMillis) {
+                entries.put(key, new Entry(value.substring(separator + 1), createdAt));
+            }
+        }
+        logger.log(Level.INFO, "Loaded " + entries.size() + " cached translations from " + file);
+    }
+
+    /**
+     * Saves the cached translations to the cache file, replacing its previous contents.
+     * Does nothing if the cache has no file.
+     */
+    public synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().createdAt + "|" + entry.getValue().translation);
+        }
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream output = Files.newOutputStream(tmp)) {
+                properties.store(output, "Label translation cache");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save translation cache: " + e.getMessage());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static long parseCreatedAt(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String key(String sourceLanguage, String targetLanguage, String label) {
+        return sourceLanguage + ":" + targetLanguage + ":" + label;
+    }
+
+    private static class Entry {
+        private final String translation;
+        private final long createdAt;
+
+        private Entry(String translation, long createdAt) {
+            this.translation = translation;
+            this.createdAt = createdAt;
+        }
+    }
+}
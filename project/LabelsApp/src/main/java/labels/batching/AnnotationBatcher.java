@@ -0,0 +1,149 @@
+package labels.batching;
+
+import labels.apiservice.ImageRef;
+import labels.apiservice.LabelDetector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the images of messages arriving within a short window and annotates them
+ * with a single batch call to the label detector.
+ * A batch is sent when it reaches the maximum size or when the window of its first image expires.
+ */
+public class AnnotationBatcher implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(AnnotationBatcher.class.getName());
+
+    private final LabelDetector labelDetector;
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService callExecutor = Executors.newCachedThreadPool();
+    private List<Pending> pending = new ArrayList<>();
+
+    /**
+     * Constructs an AnnotationBatcher.
+     *
+     * @param labelDetector the detector used to annotate each batch.
+     * @param maxBatchSize  the maximum number of images in a batch.
+     * @param windowMillis  the maximum time in milliseconds an image waits for its batch to fill.
+     */
+    public AnnotationBatcher(LabelDetector labelDetector, int maxBatchSize, long windowMillis) {
+        this.labelDetector = labelDetector;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Adds an image to the current batch.
+     *
+     * @param image the image to annotate.
+     * @return a future completed with the labels of the image once its batch is annotated.
+     */
+    public CompletableFuture<List<String>> submit(ImageRef image) {
+        Pending entry = new Pending(image);
+        List<Pending> full = null;
+        synchronized (this) {
+            pending.add(entry);
+            if (pending.size() >= maxBatchSize) {
+                full = takePending();
+            } else if (pending.size() == 1) {
+                List<Pending> batch = pending;
+                scheduler.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return entry.result;
+    }
+
+    /**
+     * Sends the given batch if it is still the one being filled.
+     *
+     * @param batch the batch whose window expired.
+     */
+    private void flush(List<Pending> batch) {
+        List<Pending> toSend = null;
+        synchronized (this) {
+            if (pending == batch) {
+                toSend = takePending();
+            }
+        }
+        if (toSend != null) {
+            dispatch(toSend);
+        }
+    }
+
+    private List<Pending> takePending() {
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    private void dispatch(List<Pending> batch) {
+        callExecutor.execute(() -> annotate(batch));
+    }
+
+    /**
+     * Annotates a batch and fans the results back out to the futures of each image.
+     *
+     * @param batch the batch to annotate.
+     */
+    private void annotate(List<Pending> batch) {
+        List<ImageRef> images = new ArrayList<>();
+        for (Pending entry : batch) {
+            images.add(entry.image);
+        }
+        try {
+            List<List<String>> results = labelDetector.detectLabels(images);
+            for (int i = 0; i < batch.size(); i++) {
+                List<String> labels = i < results.size() ? results.get(i) : null;
+                batch.get(i).result.complete(labels != null ? labels : new ArrayList<>());
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Label detection failed for a batch of " + batch.size() + " images: " + e.getMessage());
+            for (Pending entry : batch) {
+                entry.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Sends the batch being filled and stops the batcher once every batch has been annotated.
+     * If interrupted while waiting, the batches in flight are abandoned and the interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+        scheduler.shutdownNow();
+        callExecutor.shutdown();
+        try {
+            callExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Pending {
+        private final ImageRef image;
+        private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+        private Pending(ImageRef image) {
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package labels.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * LabelsConfig loads configuration settings for the LabelsApp from a properties file.
+ */
+public class LabelsConfig {
+    private final String sourceLanguage;
+    private final String targetLanguage;
+    private final int translationCacheMaxEntries;
+    private final long translationCacheTtlHours;
+    private final String translationCacheFile;
+    private final int visionBatchMaxSize;
+    private final long visionBatchWindowMillis;
+    private final int firestoreBatchMaxWrites;
+    private final long firestoreBatchMaxDelayMillis;
+    private final int visionWorkers;
+    private final int visionQueueCapacity;
+    private final int translateWorkers;
+    private final int translateQueueCapacity;
+    private final int storeWorkers;
+    private final int storeQueueCapacity;
+    private final long pipelineStatsIntervalSeconds;
+    private final String metricsAddress;
+    private final int metricsPort;
+
+    /**
+     * Constructs a new LabelsConfig, loading settings from the properties file.
+     *
+     * @throws IOException if there is an error loading the properties file
+     */
+    public LabelsConfig() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = getClass().getResourceAsStream("/labels/labels.properties")) {
+            if (input == null) {
+                throw new IOException("Unable to find labels.properties");
+            }
+            properties.load(input);
+        }
+
+        this.sourceLanguage = properties.getProperty("sourceLanguage");
+        this.targetLanguage = properties.getProperty("targetLanguage");
+        this.translationCacheMaxEntries = Integer.parseInt(properties.getProperty("translationCacheMaxEntries"));
+        this.translationCacheTtlHours = Long.parseLong(properties.getProperty("translationCacheTtlHours"));
+        // An empty value keeps the cache in memory only
+        this.translationCacheFile = properties.getProperty("translationCacheFile", "");
+        this.visionBatchMaxSize = Integer.parseInt(properties.getProperty("visionBatchMaxSize"));
+        this.visionBatchWindowMillis = Long.parseLong(properties.getProperty("visionBatchWindowMillis"));
+        this.firestoreBatchMaxWrites = Integer.parseInt(properties.getProperty("firestoreBatchMaxWrites"));
+        this.firestoreBatchMaxDelayMillis = Long.parseLong(properties.getProperty("firestoreBatchMaxDelayMillis"));
+        this.visionWorkers = Integer.parseInt(properties.getProperty("visionWorkers"));
+        this.visionQueueCapacity = Integer.parseInt(properties.getProperty("visionQueueCapacity"));
+        this.translateWorkers = Integer.parseInt(properties.getProperty("translateWorkers"));
+        this.translateQueueCapacity = Integer.parseInt(properties.getProperty("translateQueueCapacity"));
+        this.storeWorkers = Integer.parseInt(properties.getProperty("storeWorkers"));
+        this.storeQueueCapacity = Integer.parseInt(properties.getProperty("storeQueueCapacity"));
+        // An interval of 0 disables the periodic log of the stage statistics
+        this.pipelineStatsIntervalSeconds = Long.parseLong(properties.getProperty("pipelineStatsIntervalSeconds"));
+        this.metricsPort = Integer.parseInt(properties.getProperty("metricsPort", "0"));
+        this.metricsAddress = properties.getProperty("metricsAddress", "127.0.0.1");
+    }
+
+    public String getSourceLanguage() {
+        return sourceLanguage;
+    }
+
+    public String getTargetLanguage() {
+        return targetLanguage;
+    }
+
+    public int getTranslationCacheMaxEntries() {
+        return translationCacheMaxEntries;
+    }
+
+    public long getTranslationCacheTtlHours() {
+        return translationCacheTtlHours;
+    }
+
+    public String getTranslationCacheFile() {
+        return translationCacheFile;
+    }
+
+    public int getVisionBatchMaxSize() {
+        return visionBatchMaxSize;
+    }
+
+    public long getVisionBatchWindowMillis() {
+        return visionBatchWindowMillis;
+    }
+
+    public int getFirestoreBatchMaxWrites() {
+        return firestoreBatchMaxWrites;
+    }
+
+    public long getFirestoreBatchMaxDelayMillis() {
+        return firestoreBatchMaxDelayMillis;
+    }
+
+    public int getVisionWorkers() {
+        return visionWorkers;
+    }
+
+    public int getVisionQueueCapacity() {
+        return visionQueueCapacity;
+    }
+
+    public int getTranslateWorkers() {
+        return translateWorkers;
+    }
+
+    public int getTranslateQueueCapacity() {
+        return translateQueueCapacity;
+    }
+
+    public int getStoreWorkers() {
+        return storeWorkers;
+    }
+
+    public int getStoreQueueCapacity() {
+        return storeQueueCapacity;
+    }
+
+    public long getPipelineStatsIntervalSeconds() {
+        return pipelineStatsIntervalSeconds;
+    }
+
+    public String getMetricsAddress() {
+        return metricsAddress;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+}
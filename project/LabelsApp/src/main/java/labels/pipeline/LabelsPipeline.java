@@ -0,0 +1,211 @@
+package labels.pipeline;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.common.util.concurrent.MoreExecutors;
+import google.firestore.models.ImageInformation;
+import google.firestore.models.TranslationInformation;
+import google.firestore.models.VisionInformation;
+import labels.apiservice.ImageRef;
+import labels.apiservice.LabelTranslator;
+import labels.batching.AnnotationBatcher;
+import labels.config.LabelsConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Processes the images of the labels subscription in three stages, each with its own queue and workers:
+ * label detection, label translation and storage. Vision and Translate calls are latency bound, so their
+ * stages are sized by the number of calls kept in flight, while storage only hands writes to Firestore.
+ * A message is acked once its image information is stored, or nacked as soon as a stage fails.
+ */
+public class LabelsPipeline implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(LabelsPipeline.class.getName());
+
+    private final AnnotationBatcher annotationBatcher;
+    private final LabelTranslator labelTranslator;
+    private final Function<ImageInformation, ApiFuture<?>> store;
+    private final Stage<ImageJob> visionStage;
+    private final Stage<ImageJob> translateStage;
+    private final Stage<ImageJob> storeStage;
+    private final ScheduledExecutorService statsScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final long statsIntervalSeconds;
+
+    /**
+     * Constructs a LabelsPipeline. Its stages are started by {@link #start}.
+     *
+     * @param config            Configuration of the stages.
+     * @param annotationBatcher Batcher used to detect the labels of each image.
+     * @param labelTranslator   Service used to translate the detected labels.
+     * @param store             Saves the information of an image, returning a future completed once it is stored.
+     */
+    public LabelsPipeline(LabelsConfig config, AnnotationBatcher annotationBatcher, LabelTranslator labelTranslator,
+                          Function<ImageInformation, ApiFuture<?>> store) {
+        this.annotationBatcher = annotationBatcher;
+        this.labelTranslator = labelTranslator;
+        this.store = store;
+        this.storeStage = new Stage<>("store", config.getStoreWorkers(), config.getStoreQueueCapacity(), this::store);
+        this.translateStage = new Stage<>("translate", config.getTranslateWorkers(), config.getTranslateQueueCapacity(), this::translate);
+        this.visionStage = new Stage<>("vision", config.getVisionWorkers(), config.getVisionQueueCapacity(), this::detect);
+        this.statsIntervalSeconds = config.getPipelineStatsIntervalSeconds();
+    }
+
+    /**
+     * Starts the workers of the stages and the periodic log of their statistics.
+     */
+    public void start() {
+        for (Stage<?> stage : getStages()) {
+            stage.start();
+        }
+        if (statsIntervalSeconds > 0) {
+            statsScheduler.scheduleAtFixedRate(this::logStats, statsIntervalSeconds, statsIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Adds an image to the pipeline, waiting while the first stage is full.
+     *
+     * @param id        Request ID of the image.
+     * @param timestamp Time the image was submitted.
+     * @param image     The stored image.
+     * @param consumer  Consumer used to ack or nack the message of the image.
+     * @throws InterruptedException if interrupted while waiting for room in the first stage.
+     */
+    public void submit(String id, Timestamp timestamp, ImageRef image, AckReplyConsumer consumer) throws InterruptedException {
+        visionStage.submit(new ImageJob(id, timestamp, image, consumer));
+    }
+
+    /**
+     * Returns the number of images the pipeline holds when every stage is full, which is the number
+     * of messages worth leasing from Pub/Sub at a time.
+     *
+     * @return the capacity of the pipeline.
+     */
+    public int getCapacity() {
+        int capacity = 0;
+        for (Stage<?> stage : getStages()) {
+            capacity += stage.getCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns the stages of the pipeline in processing order, to inspect their queue depth and service time.
+     *
+     * @return the stages.
+     */
+    public List<Stage<?>> getStages() {
+        return Arrays.asList(visionStage, translateStage, storeStage);
+    }
+
+    private void detect(ImageJob job) {
+        try {
+            job.labels = annotationBatcher.submit(job.image).get();
+            translateStage.submit(job);
+        } catch (ExecutionException e) {
+            fail(job, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(job, e);
+        } catch (RuntimeException e) {
+            // Such as a closed translate stage, the message must still be released
+            fail(job, e);
+        }
+    }
+
+    private void translate(ImageJob job) {
+        try {
+            job.translations = labelTranslator.translateLabels(job.labels);
+            storeStage.submit(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(job, e);
+        } catch (RuntimeException e) {
+            fail(job, e);
+        }
+    }
+
+    /**
+     * Hands the information of an image to Firestore. The message is acked or nacked once the write
+     * completes, without holding the worker, so writes of many images can share a batched commit.
+     */
+    private void store(ImageJob job) {
+        ImageInformation imageInformation = new ImageInformation(job.id, job.timestamp,
+                new TranslationInformation(job.translations), new VisionInformation(job.labels));
+        ApiFuture<?> saved;
+        try {
+            saved = store.apply(imageInformation);
+        } catch (RuntimeException e) {
+            fail(job, e);
+            return;
+        }
+        ApiFutures.addCallback(saved, new ApiFutureCallback<Object>() {
+            @Override
+            public void onFailure(Throwable t) {
+                fail(job, t);
+            }
+
+            @Override
+            public void onSuccess(Object result) {
+                job.consumer.ack();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void fail(ImageJob job, Throwable t) {
+        job.consumer.nack();
+        System.err.println("Error: " + t.getMessage());
+    }
+
+    private void logStats() {
+        StringBuilder stats = new StringBuilder("Pipeline stages:");
+        for (Stage<?> stage : getStages()) {
+            stats.append(String.format(" %s[queue=%d busy=%d/%d avgServiceMs=%.1f processed=%d]",
+                    stage.getName(), stage.getQueueDepth(), stage.getBusyWorkers(), stage.getWorkerCount(),
+                    stage.getAverageServiceMillis(), stage.getProcessed()));
+        }
+        logger.info(stats.toString());
+    }
+
+    /**
+     * Drains the pipeline, processing every image already accepted.
+     * If interrupted while waiting, the stages are stopped and the interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        statsScheduler.shutdownNow();
+        // Upstream stages first, so the images they still hold reach the stages after them
+        visionStage.close();
+        translateStage.close();
+        storeStage.close();
+    }
+
+    /**
+     * The state of one image as it moves through the stages.
+     */
+    private static class ImageJob {
+        private final String id;
+        private final Timestamp timestamp;
+        private final ImageRef image;
+        private final AckReplyConsumer consumer;
+        private List<String> labels;
+        private List<String> translations;
+
+        private ImageJob(String id, Timestamp timestamp, ImageRef image, AckReplyConsumer consumer) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.image = image;
+            this.consumer = consumer;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package labels.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stage of the message processing pipeline: a bounded queue served by its own pool of workers.
+ * Submitting to a full stage blocks, so a slow stage holds back the stages feeding it instead of
+ * letting work pile up in memory.
+ *
+ * @param <T> the type of the items processed by the stage.
+ */
+public class Stage<T> implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(Stage.class.getName());
+
+    private final String name;
+    private final int workerCount;
+    private final int queueCapacity;
+    private final BlockingQueue<T> queue;
+    private final Consumer<T> handler;
+    private final ExecutorService workers;
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a Stage. Its workers are started by {@link #start}.
+     *
+     * @param name          the name of the stage, used in thread names and statistics.
+     * @param workerCount   the number of workers serving the queue.
+     * @param queueCapacity the maximum number of items waiting for a worker.
+     * @param handler       processes one item. It is expected to handle its own failures.
+     */
+    public Stage(String name, int workerCount, int queueCapacity, Consumer<T> handler) {
+        this.name = name;
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.handler = handler;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount,
+                runnable -> new Thread(runnable, name + "-worker-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Starts the workers of the stage. Items submitted before are processed once it is started.
+     */
+    public void start() {
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Adds an item to the queue of the stage, waiting while the queue is full.
+     *
+     * @param item the item to process.
+     * @throws InterruptedException if interrupted while waiting for room in the queue.
+     */
+    public void submit(T item) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Stage " + name + " is closed");
+        }
+        queue.put(item);
+    }
+
+    private void work() {
+        while (!(closed && queue.isEmpty())) {
+            T item;
+            try {
+                item = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (item == null) {
+                continue;
+            }
+            busyWorkers.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                handler.accept(item);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Unhandled failure in stage " + name + ": " + e.getMessage(), e);
+            } finally {
+                serviceNanos.add(System.nanoTime() - start);
+                processed.increment();
+                busyWorkers.decrementAndGet();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of items the stage holds when its queue is full and every worker is busy.
+     *
+     * @return the capacity of the stage.
+     */
+    public int getCapacity() {
+        return queueCapacity + workerCount;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getBusyWorkers() {
+        return busyWorkers.get();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * Returns the average time a worker spends on one item, including the time spent handing it
+     * to the next stage.
+     *
+     * @return the average service time in milliseconds.
+     */
+    public double getAverageServiceMillis() {
+        long count = processed.sum();
+        return count == 0 ? 0.0 : serviceNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    /**
+     * Stops accepting items and waits for the workers to process the items already queued.
+     * If interrupted while waiting, the workers are stopped and the interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package labels.apiservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TranslationCacheTest {
+    private static final long TTL_MILLIS = 1000;
+
+    private final AtomicLong now = new AtomicLong(10_000);
+
+    @Test
+    void leastRecentlyUsedTranslationIsEvicted() {
+        TranslationCache cache = new TranslationCache(2, TTL_MILLIS, null, now::get);
+        cache.put("en", "pt", "Sky", "Céu");
+        cache.put("en", "pt", "Cloud", "Nuvem");
+
+        // Reading Sky makes Cloud the least recently used
+        assertEquals("Céu", cache.get("en", "pt", "Sky"));
+        cache.put("en", "pt", "Tree", "Árvore");
+
+        assertNull(cache.get("en", "pt", "Cloud"));
+        assertEquals("Céu", cache.get("en", "pt", "Sky"));
+        assertEquals("Árvore", cache.get("en", "pt", "Tree"));
+    }
+
+    @Test
+    void translationExpiresAfterItsTimeToLive() {
+        TranslationCache cache = new TranslationCache(10, TTL_MILLIS, null, now::get);
+        cache.put("en", "pt", "Sky", "Céu");
+
+        now.addAndGet(TTL_MILLIS);
+        assertEquals("Céu", cache.get("en", "pt", "Sky"));
+        now.incrementAndGet();
+        assertNull(cache.get("en", "pt", "Sky"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void loadKeepsValidTranslationsAndSkipsMalformedOnes(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("translations.properties");
+        TranslationCache saved = new TranslationCache(10, TTL_MILLIS, file, now::get);
+        saved.put("en", "pt", "Sky", "Céu");
+        saved.put("en", "pt", "Cloud", "Nuvem");
+        now.addAndGet(TTL_MILLIS / 2);
+        saved.put("en", "pt", "Tree", "Árvore");
+        saved.save();
+        Files.writeString(file, "en\\:pt\\:Car=soon|Carro\nen\\:pt\\:Dog=Cão\n", StandardOpenOption.APPEND);
+
+        now.addAndGet(TTL_MILLIS / 2 + 1);
+        TranslationCache loaded = new TranslationCache(10, TTL_MILLIS, file, now::get);
+        loaded.load();
+
+        assertNull(loaded.get("en", "pt", "Sky"));
+        assertNull(loaded.get("en", "pt", "Car"));
+        assertNull(loaded.get("en", "pt", "Dog"));
+        assertEquals("Árvore", loaded.get("en", "pt", "Tree"));
+    }
+}
@@ -0,0 +1,135 @@
+package labels.batching;
+
+import labels.apiservice.ImageRef;
+import labels.apiservice.LabelDetector;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AnnotationBatcherTest {
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final long LONG_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    void fullBatchesAreSentWithoutWaitingForTheWindow() throws Exception {
+        RecordingDetector detector = new RecordingDetector();
+        List<CompletableFuture<List<String>>> results = new ArrayList<>();
+        try (AnnotationBatcher batcher = new AnnotationBatcher(detector, MAX_BATCH_SIZE, LONG_WINDOW_MILLIS)) {
+            for (int i = 0; i < 2 * MAX_BATCH_SIZE; i++) {
+                results.add(batcher.submit(new ImageRef("bucket", "image-" + i)));
+            }
+            for (CompletableFuture<List<String>> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(List.of(MAX_BATCH_SIZE, MAX_BATCH_SIZE), detector.batchSizes());
+        }
+    }
+
+    @Test
+    void partialBatchIsSentWhenTheWindowExpires() throws Exception {
+        RecordingDetector detector = new RecordingDetector();
+        try (AnnotationBatcher batcher = new AnnotationBatcher(detector, MAX_BATCH_SIZE, 20)) {
+            CompletableFuture<List<String>> first = batcher.submit(new ImageRef("bucket", "a"));
+            CompletableFuture<List<String>> second = batcher.submit(new ImageRef("bucket", "b"));
+
+            assertEquals(List.of("label-a"), first.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of("label-b"), second.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of(2), detector.batchSizes());
+        }
+    }
+
+    @Test
+    void closeSendsTheBatchBeingFilled() throws Exception {
+        RecordingDetector detector = new RecordingDetector();
+        AnnotationBatcher batcher = new AnnotationBatcher(detector, MAX_BATCH_SIZE, LONG_WINDOW_MILLIS);
+        List<CompletableFuture<List<String>>> results = new ArrayList<>();
+        for (int i = 0; i < MAX_BATCH_SIZE + 3; i++) {
+            results.add(batcher.submit(new ImageRef("bucket", "image-" + i)));
+        }
+
+        batcher.close();
+
+        assertEquals(List.of(MAX_BATCH_SIZE, 3), detector.batchSizes());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(List.of("label-image-" + i), results.get(i).getNow(null));
+        }
+    }
+
+    @Test
+    void imageWithoutResultCompletesWithNoLabels() throws Exception {
+        LabelDetector detector = new RecordingDetector() {
+            @Override
+            public List<List<String>> detectLabels(List<ImageRef> images) throws IOException {
+                List<List<String>> results = super.detectLabels(images);
+                results.set(0, null);
+                return results.subList(0, images.size() - 1);
+            }
+        };
+        try (AnnotationBatcher batcher = new AnnotationBatcher(detector, 3, LONG_WINDOW_MILLIS)) {
+            CompletableFuture<List<String>> first = batcher.submit(new ImageRef("bucket", "a"));
+            CompletableFuture<List<String>> second = batcher.submit(new ImageRef("bucket", "b"));
+            CompletableFuture<List<String>> third = batcher.submit(new ImageRef("bucket", "c"));
+
+            assertEquals(List.of(), first.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of("label-b"), second.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of(), third.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void failedRequestFailsEveryImageOfTheBatch() throws Exception {
+        IOException failure = new IOException("unavailable");
+        LabelDetector detector = new RecordingDetector() {
+            @Override
+            public List<List<String>> detectLabels(List<ImageRef> images) throws IOException {
+                throw failure;
+            }
+        };
+        try (AnnotationBatcher batcher = new AnnotationBatcher(detector, 2, LONG_WINDOW_MILLIS)) {
+            CompletableFuture<List<String>> first = batcher.submit(new ImageRef("bucket", "a"));
+            CompletableFuture<List<String>> second = batcher.submit(new ImageRef("bucket", "b"));
+
+            for (CompletableFuture<List<String>> result : Arrays.asList(first, second)) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Labels each image with its blob name and records the size of every batch.
+     */
+    private static class RecordingDetector implements LabelDetector {
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<String> detectLabels(String bucketName, String blobName) {
+            return List.of("label-" + blobName);
+        }
+
+        @Override
+        public List<List<String>> detectLabels(List<ImageRef> images) throws IOException {
+            batchSizes.add(images.size());
+            List<List<String>> results = new ArrayList<>();
+            for (ImageRef image : images) {
+                results.add(detectLabels(image.getBucketName(), image.getBlobName()));
+            }
+            return results;
+        }
+
+        List<Integer> batchSizes() {
+            return new ArrayList<>(batchSizes);
+        }
+    }
+}
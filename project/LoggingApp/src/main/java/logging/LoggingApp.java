@@ -1,76 +1,245 @@
 package logging;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.Timestamp;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
+import google.firestore.FirestoreBatchWriter;
 import google.firestore.FirestoreService;
 import google.firestore.models.LogEntry;
+import google.metrics.MetricsRegistry;
+import google.metrics.MetricsServer;
 import google.pubsub.service.PubSubService;
+import google.pubsub.util.AvroCodec;
+import logging.config.LoggingConfig;
+import logging.rollup.RequestRollups;
+import logging.wal.WriteAheadLog;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Application to process log messages and save them to Firestore.
  */
 public class LoggingApp {
+    private static final Logger logger = Logger.getLogger(LoggingApp.class.getName());
+    private static final long SUBSCRIBER_STOP_TIMEOUT_SECONDS = 30;
+
     private final FirestoreService firestoreService;
     private final PubSubService pubSubService;
-    private final Schema schema;
+    private final AvroCodec avroCodec;
+    private final FirestoreBatchWriter batchWriter;
+    private final WriteAheadLog writeAheadLog;
+    private final RequestRollups requestRollups;
+    private final long retryDelayMillis;
+    private final long maxUncommittedEntries;
+    private final Semaphore uncommittedEntries;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
 
     /**
-     * Constructor to initialize FirestoreService, PubSubService, and Avro schema.
+     * Constructor to initialize FirestoreService, PubSubService, the Avro codec and the write-ahead log.
+     *
+     * @param config Configuration of the application.
      */
-    public LoggingApp() {
+    public LoggingApp(LoggingConfig config) {
         try {
             this.firestoreService = new FirestoreService();
+            this.batchWriter = config.getFirestoreBatchMaxWrites() > 1
+                    ? firestoreService.newBatchWriter(config.getFirestoreBatchMaxWrites(), config.getFirestoreBatchMaxDelayMillis())
+                    : null;
             this.pubSubService = new PubSubService();
-            this.schema = new Schema.Parser().parse(getClass().getResourceAsStream("/logging/messageSchema.avsc"));
+            Schema schema = new Schema.Parser().parse(getClass().getResourceAsStream("/logging/messageSchema.avsc"));
+            this.avroCodec = new AvroCodec(schema);
         } catch (IOException e) {
             throw new IllegalStateException("Failed to read schema file.");
         }
+        try {
+            this.writeAheadLog = config.getWalDirectory().isEmpty()
+                    ? null
+                    : new WriteAheadLog(Paths.get(config.getWalDirectory()),
+                            config.getWalSyncIntervalMillis(), config.getWalSegmentMaxEntries());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the write-ahead log: " + e.getMessage());
+        }
+        this.retryDelayMillis = config.getFirestoreRetryDelayMillis();
+        this.maxUncommittedEntries = config.getMaxUncommittedEntries();
+        this.uncommittedEntries = new Semaphore(Math.toIntExact(maxUncommittedEntries));
+        this.requestRollups = new RequestRollups(firestoreService, config.getRollupFlushIntervalSeconds());
+    }
+
+    /**
+     * Method to commit the entries a previous run left in the write-ahead log.
+     *
+     * @throws IOException if the write-ahead log cannot be read.
+     */
+    public void replayWriteAheadLog() throws IOException {
+        if (writeAheadLog == null) {
+            return;
+        }
+        List<WriteAheadLog.ReplayedRecord> records = writeAheadLog.replay();
+        if (!records.isEmpty()) {
+            logger.info("Replaying " + records.size() + " log entries from the write-ahead log");
+        }
+        for (WriteAheadLog.ReplayedRecord record : records) {
+            store(record.getLogEntry(), record::release);
+        }
     }
 
     /**
      * Method to subscribe to Pub/Sub messages and process them.
+     * With the write-ahead log, each message is acked once its log entry is on disk, and the entry is then
+     * committed to Firestore in the background, retrying until it succeeds. Without it, each message is acked
+     * once its log entry is committed and nacked if the commit fails. Each acked message is also counted in
+     * the per-minute and per-hour request rollups.
+     * At most maxUncommittedEntries entries wait on Firestore at a time: leased messages are capped by the flow
+     * control of the subscriber, and acked entries by blocking the receiver, so no more messages are pulled
+     * while Firestore is slow or unavailable.
      */
     public void checkSub() {
         pubSubService.subscribeMessageLogging((message, consumer) -> {
             ByteString data = message.getData();
             try {
-                GenericRecord record = deserializeAvroSchema(data);
+                GenericRecord record = avroCodec.decode(data, message.getAttributesMap().get(AvroCodec.CONTENT_TYPE_ATTRIBUTE));
 
                 Map<String, String> attributes = message.getAttributesMap();
                 String timestamp = attributes.get("timestamp");
 
                 Timestamp firestoreTimestamp = Timestamp.parseTimestamp(timestamp);
 
-                firestoreService.saveLog(new LogEntry(record.get("id").toString(), firestoreTimestamp));
-                consumer.ack();
-            } catch (IOException | ExecutionException | InterruptedException e) {
+                LogEntry logEntry = new LogEntry(record.get("id").toString(), firestoreTimestamp);
+                if (writeAheadLog != null) {
+                    receiveDurably(logEntry, consumer);
+                } else {
+                    receive(logEntry, consumer);
+                }
+            } catch (IOException e) {
                 consumer.nack();
                 System.err.println("Error: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                consumer.nack();
+            }
+        }, maxUncommittedEntries);
+    }
+
+    /**
+     * Acks a message once its log entry is committed.
+     */
+    private void receive(LogEntry logEntry, AckReplyConsumer consumer) {
+        ApiFutures.addCallback(save(logEntry), new ApiFutureCallback<Object>() {
+            @Override
+            public void onFailure(Throwable t) {
+                consumer.nack();
+                System.err.println("Error: " + t.getMessage());
+            }
+
+            @Override
+            public void onSuccess(Object result) {
+                consumer.ack();
+                requestRollups.record(logEntry.getTimestamp());
             }
-        });
+        }, MoreExecutors.directExecutor());
     }
 
     /**
-     * Method to deserialize Avro schema from ByteString.
+     * Acks a message once its log entry is in the write-ahead log, then commits the entry.
+     * Waits while maxUncommittedEntries acked entries are not yet committed.
+     */
+    private void receiveDurably(LogEntry logEntry, AckReplyConsumer consumer) throws IOException, InterruptedException {
+        uncommittedEntries.acquire();
+        WriteAheadLog.Record walRecord;
+        try {
+            walRecord = writeAheadLog.append(logEntry);
+        } catch (IOException e) {
+            uncommittedEntries.release();
+            throw e;
+        }
+        ApiFutures.addCallback(walRecord.getSynced(), new ApiFutureCallback<Void>() {
+            @Override
+            public void onFailure(Throwable t) {
+                // The message is delivered again, so this copy of the entry is not needed
+                walRecord.release();
+                uncommittedEntries.release();
+                consumer.nack();
+                System.err.println("Error: " + t.getMessage());
+            }
+
+            @Override
+            public void onSuccess(Void result) {
+                consumer.ack();
+                requestRollups.record(logEntry.getTimestamp());
+                store(logEntry, () -> {
+                    walRecord.release();
+                    uncommittedEntries.release();
+                });
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ApiFuture<?> save(LogEntry logEntry) {
+        return batchWriter != null
+                ? batchWriter.saveLog(logEntry)
+                : firestoreService.saveLogAsync(logEntry);
+    }
+
+    /**
+     * Commits a log entry of the write-ahead log, retrying until it succeeds.
+     * The entries retried at once are bounded by maxUncommittedEntries, or by the entries in flight at the
+     * crash for replayed ones, and each stays in the write-ahead log until committed, so it also survives
+     * another crash.
      *
-     * @param data ByteString containing Avro data.
-     * @return Deserialized Avro record.
-     * @throws IOException if an error occurs during deserialization.
+     * @param logEntry  the log entry to commit.
+     * @param committed called once the entry is committed.
+     */
+    private void store(LogEntry logEntry, Runnable committed) {
+        ApiFutures.addCallback(save(logEntry), new ApiFutureCallback<Object>() {
+            @Override
+            public void onFailure(Throwable t) {
+                logger.log(Level.WARNING, "Failed to save log entry, retrying: " + t.getMessage());
+                try {
+                    retryScheduler.schedule(() -> store(logEntry, committed), retryDelayMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down, the entry is replayed from the write-ahead log on the next start
+                }
+            }
+
+            @Override
+            public void onSuccess(Object result) {
+                committed.run();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Method to stop receiving messages, commit the pending Firestore writes and flush the request rollups.
+     * Each step only starts once the previous one can no longer feed it: the write-ahead log is flushed once no
+     * more entries arrive, which acks and counts its last entries, the batched writes are committed after that,
+     * and the rollups are flushed last, with every count recorded.
      */
-    private GenericRecord deserializeAvroSchema(ByteString data) throws IOException {
-        String dataString = data.toStringUtf8();
-        DatumReader<GenericRecord> reader = new GenericDatumReader<>(schema);
-        Decoder decoder = DecoderFactory.get().jsonDecoder(schema, dataString);
-        return reader.read(null, decoder);
+    public void close() {
+        pubSubService.stopSubscribers(SUBSCRIBER_STOP_TIMEOUT_SECONDS);
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+        if (batchWriter != null) {
+            batchWriter.close();
+        }
+        requestRollups.close();
+        // Entries still failing are left in the write-ahead log, to be replayed on the next start
+        retryScheduler.shutdownNow();
     }
 
     /**
@@ -78,8 +247,19 @@ public class LoggingApp {
      *
      * @param args Command-line arguments (not used).
      */
-    public static void main(String[] args) {
-        LoggingApp app = new LoggingApp();
+    public static void main(String[] args) throws IOException {
+        LoggingConfig config = new LoggingConfig();
+        LoggingApp app = new LoggingApp(config);
+        MetricsServer metricsServer = config.getMetricsPort() > 0
+                ? new MetricsServer(config.getMetricsAddress(), config.getMetricsPort(), MetricsRegistry.getDefault())
+                : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.close();
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+        }));
+        app.replayWriteAheadLog();
         app.checkSub();
         // Keep the application running to listen for messages
         while (true) {
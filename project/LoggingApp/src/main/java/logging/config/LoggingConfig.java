@@ -0,0 +1,94 @@
+package logging.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * LoggingConfig loads configuration settings for the LoggingApp from a properties file.
+ */
+public class LoggingConfig {
+    private final int firestoreBatchMaxWrites;
+    private final long firestoreBatchMaxDelayMillis;
+    private final long firestoreRetryDelayMillis;
+    private final String walDirectory;
+    private final long walSyncIntervalMillis;
+    private final int walSegmentMaxEntries;
+    private final long maxUncommittedEntries;
+    private final long rollupFlushIntervalSeconds;
+    private final String metricsAddress;
+    private final int metricsPort;
+
+    /**
+     * Constructs a new LoggingConfig, loading settings from the properties file.
+     *
+     * @throws IOException if there is an error loading the properties file
+     */
+    public LoggingConfig() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = getClass().getResourceAsStream("/logging/logging.properties")) {
+            if (input == null) {
+                throw new IOException("Unable to find logging.properties");
+            }
+            properties.load(input);
+        }
+
+        this.firestoreBatchMaxWrites = Integer.parseInt(properties.getProperty("firestoreBatchMaxWrites"));
+        this.firestoreBatchMaxDelayMillis = Long.parseLong(properties.getProperty("firestoreBatchMaxDelayMillis"));
+        this.firestoreRetryDelayMillis = Long.parseLong(properties.getProperty("firestoreRetryDelayMillis"));
+        // An empty value disables the write-ahead log, messages are then acked only once committed
+        this.walDirectory = properties.getProperty("walDirectory", "");
+        if (!walDirectory.isEmpty() && !Paths.get(walDirectory).isAbsolute()) {
+            // A relative directory would depend on where the application is started, losing the log on a restart
+            throw new IOException("walDirectory must be an absolute path: " + walDirectory);
+        }
+        this.walSyncIntervalMillis = Long.parseLong(properties.getProperty("walSyncIntervalMillis"));
+        this.walSegmentMaxEntries = Integer.parseInt(properties.getProperty("walSegmentMaxEntries"));
+        // Caps the entries waiting on Firestore while it is slow or down, leased or acked from the write-ahead log
+        this.maxUncommittedEntries = Long.parseLong(properties.getProperty("maxUncommittedEntries"));
+        this.rollupFlushIntervalSeconds = Long.parseLong(properties.getProperty("rollupFlushIntervalSeconds"));
+        this.metricsPort = Integer.parseInt(properties.getProperty("metricsPort", "0"));
+        this.metricsAddress = properties.getProperty("metricsAddress", "127.0.0.1");
+    }
+
+    public int getFirestoreBatchMaxWrites() {
+        return firestoreBatchMaxWrites;
+    }
+
+    public long getFirestoreBatchMaxDelayMillis() {
+        return firestoreBatchMaxDelayMillis;
+    }
+
+    public long getFirestoreRetryDelayMillis() {
+        return firestoreRetryDelayMillis;
+    }
+
+    public String getWalDirectory() {
+        return walDirectory;
+    }
+
+    public long getWalSyncIntervalMillis() {
+        return walSyncIntervalMillis;
+    }
+
+    public int getWalSegmentMaxEntries() {
+        return walSegmentMaxEntries;
+    }
+
+    public long getMaxUncommittedEntries() {
+        return maxUncommittedEntries;
+    }
+
+    public long getRollupFlushIntervalSeconds() {
+        return rollupFlushIntervalSeconds;
+    }
+
+    public String getMetricsAddress() {
+        return metricsAddress;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+}
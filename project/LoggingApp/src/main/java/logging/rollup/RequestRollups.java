@@ -0,0 +1,137 @@
+package logging.rollup;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
+import google.firestore.FirestoreBatchWriter;
+import google.firestore.FirestoreService;
+import google.firestore.RollupGranularity;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts requests per minute and per hour in memory and periodically adds the counts to the rollup
+ * documents in Firestore, so request rates can be read without scanning the raw log.
+ * Requests are counted by their submission time and whenever their message is acked, so a message
+ * delivered twice is counted twice, and counts not yet flushed are lost if the process crashes.
+ */
+public class RequestRollups implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(RequestRollups.class.getName());
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final FirestoreService firestoreService;
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+    private Map<RollupGranularity, Map<Instant, Long>> counts = newCounts();
+
+    /**
+     * Constructs a RequestRollups and starts flushing it periodically.
+     *
+     * @param firestoreService     the Firestore service holding the rollup documents.
+     * @param flushIntervalSeconds the time in seconds between two flushes.
+     */
+    public RequestRollups(FirestoreService firestoreService, long flushIntervalSeconds) {
+        this.firestoreService = firestoreService;
+        flushScheduler.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Counts one request.
+     *
+     * @param timestamp the time the request was submitted.
+     */
+    public synchronized void record(Timestamp timestamp) {
+        Instant instant = timestamp.toDate().toInstant();
+        for (Map.Entry<RollupGranularity, Map<Instant, Long>> entry : counts.entrySet()) {
+            entry.getValue().merge(entry.getKey().bucketOf(instant), 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Adds the counts recorded since the last flush to Firestore, one commit per
+     * {@link FirestoreBatchWriter#MAX_WRITES_PER_COMMIT} buckets. The counts of a failed commit are added back,
+     * to be retried with the next flush, while those of the other commits are already in Firestore.
+     *
+     * @return the futures of the commits.
+     */
+    private List<ApiFuture<List<WriteResult>>> flush() {
+        Map<RollupGranularity, Map<Instant, Long>> flushed;
+        synchronized (this) {
+            flushed = counts;
+            counts = newCounts();
+        }
+        List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+        for (Map.Entry<RollupGranularity, Map<Instant, Long>> entry : flushed.entrySet()) {
+            RollupGranularity granularity = entry.getKey();
+            for (List<Map.Entry<Instant, Long>> batch
+                    : Iterables.partition(entry.getValue().entrySet(), FirestoreBatchWriter.MAX_WRITES_PER_COMMIT)) {
+                Map<Instant, Long> bucketCounts = new HashMap<>();
+                for (Map.Entry<Instant, Long> count : batch) {
+                    bucketCounts.put(count.getKey(), count.getValue());
+                }
+                ApiFuture<List<WriteResult>> commit = firestoreService.incrementRequestCountsAsync(granularity, bucketCounts);
+                ApiFutures.addCallback(commit, new ApiFutureCallback<List<WriteResult>>() {
+                    @Override
+                    public void onFailure(Throwable t) {
+                        logger.log(Level.WARNING, "Failed to flush " + granularity + " rollups: " + t.getMessage());
+                        restore(granularity, bucketCounts);
+                    }
+
+                    @Override
+                    public void onSuccess(List<WriteResult> results) {
+                    }
+                }, MoreExecutors.directExecutor());
+                commits.add(commit);
+            }
+        }
+        return commits;
+    }
+
+    private synchronized void restore(RollupGranularity granularity, Map<Instant, Long> bucketCounts) {
+        Map<Instant, Long> current = counts.get(granularity);
+        for (Map.Entry<Instant, Long> count : bucketCounts.entrySet()) {
+            current.merge(count.getKey(), count.getValue(), Long::sum);
+        }
+    }
+
+    private static Map<RollupGranularity, Map<Instant, Long>> newCounts() {
+        Map<RollupGranularity, Map<Instant, Long>> counts = new EnumMap<>(RollupGranularity.class);
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            counts.put(granularity, new HashMap<>());
+        }
+        return counts;
+    }
+
+    /**
+     * Stops the periodic flush and flushes the counts recorded so far, waiting for the commits up to a timeout.
+     */
+    @Override
+    public void close() {
+        flushScheduler.shutdownNow();
+        try {
+            // Failures are already logged by each commit, only completion is awaited here
+            ApiFutures.successfulAsList(flush()).get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.log(Level.WARNING, "Rollups not flushed within " + CLOSE_TIMEOUT_SECONDS + " seconds, their counts may be lost");
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Failed to flush rollups: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package logging.wal;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.Timestamp;
+import google.firestore.models.LogEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local write-ahead log of the log entries not yet committed to Firestore.
+ * Entries are appended to segment files and flushed to disk together every sync interval, so a message
+ * can be acked as soon as its entry is on disk while Firestore writes are batched at their own pace.
+ * A segment is deleted once every entry it holds has been committed, and the segments left by a crash
+ * are replayed on startup.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentMaxEntries;
+    private final ScheduledExecutorService syncScheduler = Executors.newSingleThreadScheduledExecutor();
+    private long nextSegmentNumber;
+    private Segment current;
+    private List<SettableApiFuture<Void>> unsynced = new ArrayList<>();
+
+    /**
+     * Constructs a WriteAheadLog writing its segments to the given directory.
+     * Segments already in the directory are left for {@link #replay} and never appended to.
+     *
+     * @param directory          the directory of the segment files, created if missing.
+     * @param syncIntervalMillis the time in milliseconds between two flushes to disk.
+     * @param segmentMaxEntries  the number of entries after which a new segment is started.
+     * @throws IOException if the directory cannot be created or read.
+     */
+    public WriteAheadLog(Path directory, long syncIntervalMillis, int segmentMaxEntries) throws IOException {
+        this.directory = directory;
+        this.segmentMaxEntries = segmentMaxEntries;
+        Files.createDirectories(directory);
+        for (Path file : segmentFiles()) {
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file) + 1);
+        }
+        syncScheduler.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends an entry to the log.
+     *
+     * @param logEntry the entry to append.
+     * @return the appended record, whose future completes once the entry is on disk.
+     * @throws IOException if the entry cannot be written.
+     */
+    public synchronized Record append(LogEntry logEntry) throws IOException {
+        if (current == null) {
+            current = Segment.create(directory.resolve(SEGMENT_PREFIX + nextSegmentNumber++ + SEGMENT_SUFFIX));
+        }
+        String line = logEntry.getRequestId() + "\t" + logEntry.getTimestamp() + "\n";
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            current.channel.write(bytes);
+        }
+        Record record = new Record(current);
+        current.appended++;
+        unsynced.add(record.synced);
+        if (current.appended >= segmentMaxEntries) {
+            // Flush the full segment now, so only the current one is ever flushed by the scheduler
+            Segment full = current;
+            current = null;
+            syncPending(full);
+            full.seal();
+        }
+        return record;
+    }
+
+    /**
+     * Flushes the current segment to disk and completes the records written since the last flush.
+     */
+    private synchronized void sync() {
+        if (current != null && !unsynced.isEmpty()) {
+            syncPending(current);
+        }
+    }
+
+    private void syncPending(Segment segment) {
+        List<SettableApiFuture<Void>> pending = unsynced;
+        unsynced = new ArrayList<>();
+        try {
+            segment.channel.force(false);
+            for (SettableApiFuture<Void> synced : pending) {
+                synced.set(null);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to flush " + segment.file + ": " + e.getMessage());
+            for (SettableApiFuture<Void> synced : pending) {
+                synced.setException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the entries of the segments left by a previous run, which may not have reached Firestore.
+     * Each returned record must be released once its entry is committed, so that the segment is deleted.
+     * An entry cut short by a crash is skipped, as it was never on disk and its message was never acked.
+     *
+     * @return the records of the entries to commit again.
+     * @throws IOException if a segment cannot be read.
+     */
+    public List<ReplayedRecord> replay() throws IOException {
+        List<ReplayedRecord> records = new ArrayList<>();
+        for (Path file : segmentFiles()) {
+            if (current != null && file.equals(current.file)) {
+                continue;
+            }
+            Segment segment = Segment.recovered(file);
+            byte[] content = Files.readAllBytes(file);
+            // A last line without its newline was cut short by the crash, possibly within a character
+            int end = content.length;
+            while (end > 0 && content[end - 1] != '\n') {
+                end--;
+            }
+            for (String line : new String(content, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                String[] fields = line.split("\t");
+                if (fields.length != 2) {
+                    continue;
+                }
+                try {
+                    LogEntry logEntry = new LogEntry(fields[0], Timestamp.parseTimestamp(fields[1]));
+                    records.add(new ReplayedRecord(segment, logEntry));
+                    segment.appended++;
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Skipping unreadable entry in " + file + ": " + line);
+                }
+            }
+            segment.seal();
+        }
+        return records;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return files;
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Flushes the entries written so far and stops the log. Segments holding uncommitted entries are
+     * kept on disk, to be replayed on the next start.
+     */
+    @Override
+    public void close() {
+        syncScheduler.shutdownNow();
+        synchronized (this) {
+            if (current != null) {
+                Segment last = current;
+                current = null;
+                syncPending(last);
+                last.seal();
+            }
+        }
+    }
+
+    /**
+     * An entry appended to the log.
+     */
+    public static class Record {
+        private final Segment segment;
+        private final SettableApiFuture<Void> synced = SettableApiFuture.create();
+
+        private Record(Segment segment) {
+            this.segment = segment;
+        }
+
+        /**
+         * Returns a future completed once the entry is on disk.
+         *
+         * @return the future of the flush carrying the entry.
+         */
+        public ApiFuture<Void> getSynced() {
+            return synced;
+        }
+
+        /**
+         * Marks the entry as committed to Firestore, or as left to a redelivery of its message, so that
+         * its segment can be deleted.
+         */
+        public void release() {
+            segment.release();
+        }
+    }
+
+    /**
+     * An entry read back from a segment left by a previous run.
+     */
+    public static class ReplayedRecord {
+        private final Segment segment;
+        private final LogEntry logEntry;
+
+        private ReplayedRecord(Segment segment, LogEntry logEntry) {
+            this.segment = segment;
+            this.logEntry = logEntry;
+        }
+
+        public LogEntry getLogEntry() {
+            return logEntry;
+        }
+
+        /**
+         * Marks the entry as committed to Firestore, so that its segment can be deleted.
+         */
+        public void release() {
+            segment.release();
+        }
+    }
+
+    /**
+     * A segment file and the count of its entries still waiting for Firestore.
+     */
+    private static class Segment {
+        private final Path file;
+        private final FileChannel channel;
+        private int appended;
+        private int released;
+        private boolean sealed;
+
+        private Segment(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        static Segment create(Path file) throws IOException {
+            return new Segment(file, FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        }
+
+        static Segment recovered(Path file) {
+            return new Segment(file, null);
+        }
+
+        /**
+         * Marks the segment as complete, deleting it if every entry was already released.
+         */
+        synchronized void seal() {
+            sealed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to close " + file + ": " + e.getMessage());
+                }
+            }
+            deleteIfDone();
+        }
+
+        synchronized void release() {
+            released++;
+            deleteIfDone();
+        }
+
+        private void deleteIfDone() {
+            if (sealed && released >= appended) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to delete " + file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
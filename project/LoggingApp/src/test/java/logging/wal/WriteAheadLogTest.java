@@ -0,0 +1,103 @@
+package logging.wal;
+
+import com.google.cloud.Timestamp;
+import google.firestore.models.LogEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteAheadLogTest {
+    private static final Timestamp TIMESTAMP = Timestamp.parseTimestamp("2024-05-01T10:15:30.123456Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void segmentIsDeletedOnceFullAndEveryEntryReleased() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, TimeUnit.MINUTES.toMillis(1), 2)) {
+            WriteAheadLog.Record first = log.append(new LogEntry("request-1", TIMESTAMP));
+            WriteAheadLog.Record second = log.append(new LogEntry("request-2", TIMESTAMP));
+            Path segment = directory.resolve("wal-0.log");
+
+            // The full segment is flushed at once rather than on the next sync
+            first.getSynced().get(1, TimeUnit.SECONDS);
+            second.getSynced().get(1, TimeUnit.SECONDS);
+            first.release();
+            assertTrue(Files.exists(segment));
+
+            second.release();
+            assertFalse(Files.exists(segment));
+        }
+    }
+
+    @Test
+    void entriesAreSyncedOnTheSyncInterval() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 10, 100)) {
+            WriteAheadLog.Record record = log.append(new LogEntry("request-1", TIMESTAMP));
+
+            record.getSynced().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void unreleasedEntriesAreReplayedByTheNextRun() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, TimeUnit.MINUTES.toMillis(1), 100)) {
+            log.append(new LogEntry("request-1", TIMESTAMP)).release();
+            log.append(new LogEntry("request-2", TIMESTAMP));
+        }
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, TimeUnit.MINUTES.toMillis(1), 100)) {
+            List<WriteAheadLog.ReplayedRecord> records = log.replay();
+
+            assertEquals(2, records.size());
+            assertEquals("request-2", records.get(1).getLogEntry().getRequestId());
+            assertEquals(TIMESTAMP, records.get(1).getLogEntry().getTimestamp());
+            // New entries go to a segment of their own, after the replayed ones
+            log.append(new LogEntry("request-3", TIMESTAMP));
+            assertTrue(Files.exists(directory.resolve("wal-1.log")));
+
+            records.get(0).release();
+            records.get(1).release();
+            assertFalse(Files.exists(directory.resolve("wal-0.log")));
+        }
+    }
+
+    @Test
+    void lastLineCutShortByACrashIsSkipped() throws Exception {
+        Path segment = directory.resolve("wal-4.log");
+        String complete = "request-1\t" + TIMESTAMP + "\n" + "request-2\t" + TIMESTAMP + "\n";
+        // The crash cut the last entry right before its newline, so it was never acked
+        Files.write(segment, (complete + "request-3\t" + TIMESTAMP).getBytes(StandardCharsets.UTF_8));
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, TimeUnit.MINUTES.toMillis(1), 100)) {
+            List<WriteAheadLog.ReplayedRecord> records = log.replay();
+
+            assertEquals(2, records.size());
+            assertEquals("request-1", records.get(0).getLogEntry().getRequestId());
+            assertEquals("request-2", records.get(1).getLogEntry().getRequestId());
+            records.get(0).release();
+            records.get(1).release();
+            assertFalse(Files.exists(segment));
+        }
+    }
+
+    @Test
+    void segmentWithoutCompleteEntriesIsDeletedOnReplay() throws Exception {
+        Path segment = directory.resolve("wal-0.log");
+        Files.write(segment, "request-1\t2024-05".getBytes(StandardCharsets.UTF_8));
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, TimeUnit.MINUTES.toMillis(1), 100)) {
+            assertTrue(log.replay().isEmpty());
+            assertFalse(Files.exists(segment));
+        }
+    }
+}
@@ -1,10 +1,24 @@
 package serverapp;
 
+import google.firestore.FirestoreService;
+import google.metrics.GrpcMetricsInterceptor;
+import google.metrics.MetricsRegistry;
+import google.metrics.MetricsServer;
+import google.pubsub.config.PubSubConfig;
+import google.pubsub.service.PubSubService;
+import google.scaling.autoscaler.ImageProcessingAutoscaler;
+import google.scaling.autoscaler.SubscriptionMetrics;
+import google.scaling.config.ScalingInstancesConfig;
+import google.scaling.service.ScalingInstancesService;
 import io.grpc.ServerBuilder;
+import io.grpc.protobuf.services.HealthStatusManager;
+import serverapp.config.ServerConfig;
 import serviceimpl.servicesf.ServiceSF;
 import serviceimpl.servicesg.ServiceSG;
 import shutdownhook.ShutdownHook;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,18 +37,52 @@ public class ServerApp {
     public static void main(String[] args) {
         try {
             if (args.length > 0) svcPort = Integer.parseInt(args[0]);
+            ServerConfig config = new ServerConfig();
+            // Shared for the life of the process, so publishers are reused across requests
+            PubSubService pubSubService = new PubSubService();
+            // Reports the server as serving until shutdown, so load-balancing clients stop sending it calls first
+            HealthStatusManager health = new HealthStatusManager();
+            // Shared by the image services and the scaling operations
+            FirestoreService firestoreService = new FirestoreService();
+            ScalingInstancesService scalingService = new ScalingInstancesService(firestoreService);
+            MetricsRegistry registry = MetricsRegistry.getDefault();
+            ServiceSF serviceSF = new ServiceSF(svcPort, config, pubSubService, firestoreService);
+            registry.gauge("image_details_cache_hit_ratio", "Fraction of image details lookups served from the cache",
+                    serviceSF.getImageDetailsCache()::getHitRatio);
+            registry.gauge("image_details_cache_load_milliseconds", "Average time to load image details on a cache miss",
+                    serviceSF.getImageDetailsCache()::getAverageLoadMillis);
             // Create and configure the gRPC server
-            io.grpc.Server svc = ServerBuilder.forPort(svcPort) // Add services
-                    .addService(new ServiceSF(svcPort))
-                    .addService(new ServiceSG(svcPort))
-                    .build();
+            ServerBuilder<?> builder = ServerBuilder.forPort(svcPort) // Add services
+                    .addService(serviceSF)
+                    .addService(new ServiceSG(svcPort, scalingService))
+                    .addService(health.getHealthService())
+                    // Times every call of every service, including the health checks
+                    .intercept(new GrpcMetricsInterceptor(registry));
+            ExecutorService executor = configureExecutor(builder, config.getServerExecutor(), config.getServerExecutorThreads());
+            io.grpc.Server svc = builder.build();
             // Start the server
             svc.start();
 
             logger.log(Level.INFO, "Server started on port " + svcPort);
 
+            MetricsServer metricsServer = null;
+            if (config.getMetricsPort() > 0) {
+                metricsServer = new MetricsServer(config.getMetricsAddress(), config.getMetricsPort(), registry);
+                logger.log(Level.INFO, "Serving metrics on " + config.getMetricsAddress() + ":" + config.getMetricsPort());
+            }
+
+            ImageProcessingAutoscaler autoscaler = null;
+            if (config.isImageProcessingAutoscalerEnabled()) {
+                ScalingInstancesConfig scalingConfig = new ScalingInstancesConfig();
+                SubscriptionMetrics metrics = new SubscriptionMetrics(scalingConfig.getProjectId(),
+                        new PubSubConfig().getLabelsAppSubscriptionID());
+                autoscaler = new ImageProcessingAutoscaler(scalingConfig, scalingService, metrics);
+                logger.log(Level.INFO, "Autoscaling the image processing instances");
+            }
+
             // Add a shutdown hook to handle server termination
-            Runtime.getRuntime().addShutdownHook(new ShutdownHook(svc));
+            Runtime.getRuntime().addShutdownHook(new ShutdownHook(svc, health, autoscaler, scalingService, pubSubService, executor,
+                    metricsServer));
 
             // Waits for the server to become terminated
             svc.awaitTermination();
@@ -42,4 +90,40 @@ public class ServerApp {
             logger.log(Level.SEVERE, "Error starting server with exception: ", ex);
         }
     }
+
+    /**
+     * Sets the executor running the service handlers, as chosen by the serverExecutor property:
+     * <ul>
+     *     <li>virtual: one virtual thread per call, so handlers blocked on Firestore do not hold a platform thread</li>
+     *     <li>bounded: a fixed pool of serverExecutorThreads platform threads</li>
+     *     <li>direct: the transport threads, only for handlers that never block</li>
+     *     <li>default: the unbounded cached thread pool of gRPC</li>
+     * </ul>
+     *
+     * @param builder the server builder.
+     * @param mode    the serverExecutor setting.
+     * @param threads the number of threads of the bounded executor.
+     * @return the executor to shut down once the server has terminated, or null if gRPC owns it.
+     */
+    static ExecutorService configureExecutor(ServerBuilder<?> builder, String mode, int threads) {
+        ExecutorService executor;
+        switch (mode) {
+            case "virtual":
+                executor = Executors.newVirtualThreadPerTaskExecutor();
+                break;
+            case "bounded":
+                executor = Executors.newFixedThreadPool(threads);
+                break;
+            case "direct":
+                builder.directExecutor();
+                return null;
+            case "default":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown serverExecutor " + mode);
+        }
+        builder.executor(executor);
+        logger.log(Level.INFO, "Running service handlers on the " + mode + " executor");
+        return executor;
+    }
 }
@@ -0,0 +1,101 @@
+package serverapp.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * ServerConfig loads configuration settings for the gRPC server from a properties file.
+ */
+public class ServerConfig {
+    private final long imageDetailsCacheMaxWeightBytes;
+    private final long imageDetailsCacheTtlMinutes;
+    private final long imageDetailsNegativeCacheTtlSeconds;
+    private final int getAllFilesPageSize;
+    private final boolean getAllFilesUseLabelIndex;
+    private final boolean submitImageDedupContent;
+    private final int submitImageBufferBytes;
+    private final String serverExecutor;
+    private final int serverExecutorThreads;
+    private final boolean imageProcessingAutoscalerEnabled;
+    private final String metricsAddress;
+    private final int metricsPort;
+
+    /**
+     * Constructs a new ServerConfig, loading settings from the properties file.
+     *
+     * @throws IOException if there is an error loading the properties file
+     */
+    public ServerConfig() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = getClass().getResourceAsStream("/serverapp/server.properties")) {
+            if (input == null) {
+                throw new IOException("Unable to find server.properties");
+            }
+            properties.load(input);
+        }
+
+        this.imageDetailsCacheMaxWeightBytes = Long.parseLong(properties.getProperty("imageDetailsCacheMaxWeightBytes"));
+        this.imageDetailsCacheTtlMinutes = Long.parseLong(properties.getProperty("imageDetailsCacheTtlMinutes"));
+        this.imageDetailsNegativeCacheTtlSeconds = Long.parseLong(properties.getProperty("imageDetailsNegativeCacheTtlSeconds"));
+        this.getAllFilesPageSize = Integer.parseInt(properties.getProperty("getAllFilesPageSize"));
+        // Only to be enabled once LabelIndexBackfill has indexed the images saved before the index existed
+        this.getAllFilesUseLabelIndex = Boolean.parseBoolean(properties.getProperty("getAllFilesUseLabelIndex"));
+        this.submitImageDedupContent = Boolean.parseBoolean(properties.getProperty("submitImageDedupContent"));
+        // Images up to this size are held in memory until their content hash is known, so a duplicate never opens an upload
+        this.submitImageBufferBytes = Integer.parseInt(properties.getProperty("submitImageBufferBytes", "0"));
+        this.serverExecutor = properties.getProperty("serverExecutor", "default");
+        this.serverExecutorThreads = Integer.parseInt(properties.getProperty("serverExecutorThreads"));
+        this.imageProcessingAutoscalerEnabled = Boolean.parseBoolean(properties.getProperty("imageProcessingAutoscalerEnabled"));
+        this.metricsPort = Integer.parseInt(properties.getProperty("metricsPort", "0"));
+        this.metricsAddress = properties.getProperty("metricsAddress", "127.0.0.1");
+    }
+
+    public long getImageDetailsCacheMaxWeightBytes() {
+        return imageDetailsCacheMaxWeightBytes;
+    }
+
+    public long getImageDetailsCacheTtlMinutes() {
+        return imageDetailsCacheTtlMinutes;
+    }
+
+    public long getImageDetailsNegativeCacheTtlSeconds() {
+        return imageDetailsNegativeCacheTtlSeconds;
+    }
+
+    public int getGetAllFilesPageSize() {
+        return getAllFilesPageSize;
+    }
+
+    public boolean isGetAllFilesUseLabelIndex() {
+        return getAllFilesUseLabelIndex;
+    }
+
+    public boolean isSubmitImageDedupContent() {
+        return submitImageDedupContent;
+    }
+
+    public int getSubmitImageBufferBytes() {
+        return submitImageBufferBytes;
+    }
+
+    public String getServerExecutor() {
+        return serverExecutor;
+    }
+
+    public int getServerExecutorThreads() {
+        return serverExecutorThreads;
+    }
+
+    public boolean isImageProcessingAutoscalerEnabled() {
+        return imageProcessingAutoscalerEnabled;
+    }
+
+    public String getMetricsAddress() {
+        return metricsAddress;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+}
@@ -0,0 +1,179 @@
+package serviceimpl.servicesf;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.MoreExecutors;
+import google.firestore.FirestoreService;
+import google.firestore.models.ImageInformation;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of image details in front of {@link FirestoreService#getImageInfoAsync}.
+ * Image details never change once written, so found entries are kept until evicted by weight or TTL.
+ * IDs not processed yet are remembered for a short TTL so repeated polling does not reach Firestore,
+ * and concurrent lookups of the same ID share a single Firestore read.
+ */
+public class ImageDetailsCache {
+    private final FirestoreService fs;
+    private final Cache<String, ImageInformation> found;
+    private final Cache<String, Boolean> notFound;
+    // Reads in flight, so concurrent misses of the same ID share one Firestore read
+    private final ConcurrentMap<String, ApiFuture<ImageInformation>> loading = new ConcurrentHashMap<>();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    /**
+     * Constructs an ImageDetailsCache.
+     *
+     * @param fs                 the Firestore service used to load image details.
+     * @param maxWeightBytes     the approximate maximum size in bytes of the cached image details.
+     * @param ttlMinutes         the time in minutes found image details are kept.
+     * @param negativeTtlSeconds the time in seconds an ID that was not found is remembered.
+     */
+    public ImageDetailsCache(FirestoreService fs, long maxWeightBytes, long ttlMinutes, long negativeTtlSeconds) {
+        this.fs = fs;
+        this.found = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String id, ImageInformation info) -> weigh(id, info))
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        this.notFound = CacheBuilder.newBuilder()
+                .expireAfterWrite(negativeTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the details of an image, reading them from Firestore on a miss.
+     *
+     * @param id the unique ID of the image.
+     * @return the image information, or null if the image has not been processed yet.
+     * @throws ExecutionException   if an error occurs while reading from Firestore.
+     * @throws InterruptedException if interrupted while waiting for Firestore.
+     */
+    public ImageInformation get(String id) throws ExecutionException, InterruptedException {
+        return getAsync(id).get();
+    }
+
+    /**
+     * Returns the details of an image without waiting for Firestore on a miss.
+     * Cancelling the returned future does not cancel a read shared with other callers.
+     *
+     * @param id the unique ID of the image.
+     * @return a future holding the image information, or null if the image has not been processed yet.
+     */
+    public ApiFuture<ImageInformation> getAsync(String id) {
+        if (notFound.getIfPresent(id) != null) {
+            return ApiFutures.immediateFuture(null);
+        }
+        ImageInformation cached = found.getIfPresent(id);
+        if (cached != null) {
+            return ApiFutures.immediateFuture(cached);
+        }
+        SettableApiFuture<ImageInformation> load = SettableApiFuture.create();
+        ApiFuture<ImageInformation> inFlight = loading.putIfAbsent(id, load);
+        if (inFlight != null) {
+            return nonCancelling(inFlight);
+        }
+        long start = System.nanoTime();
+        ApiFutures.addCallback(fs.getImageInfoAsync(id), new ApiFutureCallback<ImageInformation>() {
+            @Override
+            public void onSuccess(ImageInformation info) {
+                recordLoad(start);
+                if (info == null) {
+                    notFound.put(id, Boolean.TRUE);
+                } else {
+                    found.put(id, info);
+                }
+                loading.remove(id, load);
+                load.set(info);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                recordLoad(start);
+                loading.remove(id, load);
+                load.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return nonCancelling(load);
+    }
+
+    /**
+     * Returns the fraction of lookups answered without reading from Firestore,
+     * counting both found and not found entries.
+     *
+     * @return the hit ratio, between 0 and 1.
+     */
+    public double getHitRatio() {
+        CacheStats foundStats = found.stats();
+        long negativeHits = notFound.stats().hitCount();
+        long requests = foundStats.requestCount() + negativeHits;
+        return requests == 0 ? 1.0 : (double) (foundStats.hitCount() + negativeHits) / requests;
+    }
+
+    /**
+     * Returns the average time spent reading image details from Firestore.
+     *
+     * @return the average load latency in milliseconds.
+     */
+    public double getAverageLoadMillis() {
+        long loads = loadCount.sum();
+        return loads == 0 ? 0.0 : loadNanos.sum() / (double) loads / 1_000_000.0;
+    }
+
+    private void recordLoad(long start) {
+        loadNanos.add(System.nanoTime() - start);
+        loadCount.increment();
+    }
+
+    /**
+     * Wraps a shared read, so that one caller cancelling its future does not fail the others.
+     */
+    private static ApiFuture<ImageInformation> nonCancelling(ApiFuture<ImageInformation> shared) {
+        SettableApiFuture<ImageInformation> view = SettableApiFuture.create();
+        ApiFutures.addCallback(shared, new ApiFutureCallback<ImageInformation>() {
+            @Override
+            public void onSuccess(ImageInformation info) {
+                view.set(info);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                view.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return view;
+    }
+
+    /**
+     * Estimates the size in bytes of a cached entry from the length of its strings.
+     */
+    private static int weigh(String id, ImageInformation info) {
+        long chars = id.length() + info.getRequestId().length();
+        chars += length(info.getVisionInfo()) + length(info.getTranslationInfo());
+        return (int) Math.min(Integer.MAX_VALUE, 2 * chars);
+    }
+
+    private static long length(List<String> values) {
+        long chars = 0;
+        if (values != null) {
+            for (String value : values) {
+                chars += value == null ? 0 : value.length();
+            }
+        }
+        return chars;
+    }
+}
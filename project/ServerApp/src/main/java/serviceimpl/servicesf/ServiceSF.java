@@ -1,20 +1,40 @@
 package serviceimpl.servicesf;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
 import google.cloudstorage.CloudStorageService;
+import google.cloudstorage.UploadSession;
 import google.firestore.FirestoreService;
+import google.firestore.FileNamePager;
 import google.firestore.models.ImageInformation;
 import google.pubsub.service.PubSubService;
+import io.grpc.Context;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import serverapp.config.ServerConfig;
 import servicesf.*;
 
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,104 +46,536 @@ public class ServiceSF extends ServiceSFGrpc.ServiceSFImplBase {
     private final CloudStorageService cs;
     private final FirestoreService fs;
     private final PubSubService pubSubService;
+    private final ImageDetailsCache imageDetailsCache;
+    private final int getAllFilesPageSize;
+    private final boolean useLabelIndex;
+    private final boolean dedupContent;
+    private final int uploadBufferBytes;
+    // Runs the blocking commit of an upload when it follows an asynchronous duplicate check
+    private final Executor storageExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     private final Logger logger = Logger.getLogger(ServiceSF.class.getName());
 
     /**
      * Constructor to initialize required services.
      *
-     * @param port The port number for the service.
+     * @param port             The port number for the service.
+     * @param config           The server configuration.
+     * @param pubSubService    The long-lived Pub/Sub service used to publish submitted images.
+     * @param firestoreService The Firestore service, shared with the scaling service.
      */
-    public ServiceSF(int port) throws IOException {
+    public ServiceSF(int port, ServerConfig config, PubSubService pubSubService, FirestoreService firestoreService)
+            throws IOException {
         this.cs = new CloudStorageService();
-        this.fs = new FirestoreService();
-        this.pubSubService = new PubSubService();
+        this.fs = firestoreService;
+        this.pubSubService = pubSubService;
+        this.imageDetailsCache = new ImageDetailsCache(fs,
+                config.getImageDetailsCacheMaxWeightBytes(),
+                config.getImageDetailsCacheTtlMinutes(),
+                config.getImageDetailsNegativeCacheTtlSeconds());
+        this.getAllFilesPageSize = config.getGetAllFilesPageSize();
+        this.useLabelIndex = config.isGetAllFilesUseLabelIndex();
+        this.dedupContent = config.isSubmitImageDedupContent();
+        // Buffering only helps when duplicates are detected, otherwise every image is uploaded
+        this.uploadBufferBytes = dedupContent ? config.getSubmitImageBufferBytes() : 0;
+    }
+
+    /**
+     * Returns the cache of image details, to inspect its hit ratio and load latency.
+     *
+     * @return the image details cache.
+     */
+    public ImageDetailsCache getImageDetailsCache() {
+        return imageDetailsCache;
     }
 
     @Override
     public StreamObserver<ImageSubmissionRequest> submitImage(StreamObserver<ImageSubmissionResponse> responseObserver) {
+        // Pull one chunk at a time, asking for the next only once the current one reached storage,
+        // so a client faster than the upload is held back by flow control instead of buffered in memory
+        ServerCallStreamObserver<ImageSubmissionResponse> serverObserver =
+                (ServerCallStreamObserver<ImageSubmissionResponse>) responseObserver;
+        serverObserver.disableAutoRequest();
+        serverObserver.request(1);
+
         return new StreamObserver<>() {
-            private final String uniqueBlobId = cs.generateUniqueBlobName();
-            private String blobLink = "";
+            private final Submission submission = new Submission();
+            private boolean failed = false;
 
             @Override
             public void onNext(ImageSubmissionRequest imageSubmissionRequest) {
-                blobLink = cs.storeImageBytes(imageSubmissionRequest.getImageChunk().toByteArray(), uniqueBlobId);
+                if (failed) return;
+                try {
+                    submission.append(imageSubmissionRequest.getImageChunk());
+                    serverObserver.request(1);
+                } catch (IOException e) {
+                    failed = true;
+                    submission.abort();
+                    logger.log(Level.WARNING, e.getMessage());
+                    responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+                }
             }
 
             @Override
             public void onError(Throwable t) {
+                submission.abort();
                 logger.log(Level.WARNING, t.getMessage());
                 responseObserver.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
             }
 
             @Override
             public void onCompleted() {
-                try {
-                    pubSubService.publishMessage(blobLink, "cn-tp-g09-bucket", uniqueBlobId);
-                } catch (IOException | InterruptedException e) {
-                    logger.log(Level.WARNING, e.getMessage());
-                    responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
-                }
-                responseObserver.onNext(ImageSubmissionResponse.newBuilder().setUniqueId(blobLink).build());
-                responseObserver.onCompleted();
+                if (failed) return;
+                // Answer the client once the submission completes, without parking this thread
+                ApiFutures.addCallback(completeSubmission(submission), new ApiFutureCallback<String>() {
+                    @Override
+                    public void onSuccess(String uniqueId) {
+                        responseObserver.onNext(ImageSubmissionResponse.newBuilder().setUniqueId(uniqueId).build());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        logger.log(Level.WARNING, t.getMessage());
+                        responseObserver.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
+                    }
+                }, MoreExecutors.directExecutor());
             }
         };
     }
 
     @Override
-    public void getImageDetails(ImageDetailsRequest request, StreamObserver<ImageDetailsResponse> responseObserver) {
+    public StreamObserver<BulkSubmissionRequest> submitImages(StreamObserver<BulkSubmissionResponse> responseObserver) {
+        // Same flow control as submitImage, applied to the frames of every image of the call
+        ServerCallStreamObserver<BulkSubmissionResponse> serverObserver =
+                (ServerCallStreamObserver<BulkSubmissionResponse>) responseObserver;
+        serverObserver.disableAutoRequest();
+        serverObserver.request(1);
 
+        return new StreamObserver<>() {
+            // Images whose last frame has not arrived yet, by client image ID
+            private final Map<Integer, Submission> open = new HashMap<>();
+            // Images that failed before their last frame, whose remaining frames are dropped
+            private final Set<Integer> discarded = new HashSet<>();
+            // Acknowledgements are sent from storage and Pub/Sub callbacks, so writes to the
+            // response stream and the state below are guarded by this observer
+            private int pending = 0;
+            private boolean halfClosed = false;
+            private boolean closed = false;
+
+            @Override
+            public void onNext(BulkSubmissionRequest frame) {
+                int imageId = frame.getImageId();
+                if (!discarded.contains(imageId)) {
+                    Submission submission = open.computeIfAbsent(imageId, id -> new Submission());
+                    try {
+                        submission.append(frame.getImageChunk());
+                        if (frame.getLast()) {
+                            open.remove(imageId);
+                            complete(imageId, submission);
+                        }
+                    } catch (IOException e) {
+                        open.remove(imageId);
+                        discarded.add(imageId);
+                        submission.abort();
+                        logger.log(Level.WARNING, e.getMessage());
+                        acknowledge(imageId, null, e.getMessage());
+                    }
+                }
+                if (frame.getLast()) {
+                    discarded.remove(imageId);
+                }
+                serverObserver.request(1);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                for (Submission submission : open.values()) {
+                    submission.abort();
+                }
+                open.clear();
+                synchronized (this) {
+                    closed = true;
+                }
+                logger.log(Level.WARNING, t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                for (Map.Entry<Integer, Submission> entry : open.entrySet()) {
+                    entry.getValue().abort();
+                    acknowledge(entry.getKey(), null, "Stream ended before the last frame of the image");
+                }
+                open.clear();
+                synchronized (this) {
+                    halfClosed = true;
+                    finishIfDone();
+                }
+            }
+
+            private void complete(int imageId, Submission submission) {
+                synchronized (this) {
+                    pending++;
+                }
+                ApiFutures.addCallback(completeSubmission(submission), new ApiFutureCallback<String>() {
+                    @Override
+                    public void onSuccess(String uniqueId) {
+                        completed(imageId, uniqueId, null);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        logger.log(Level.WARNING, t.getMessage());
+                        completed(imageId, null, t.getMessage());
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+
+            private synchronized void completed(int imageId, String uniqueId, String error) {
+                acknowledge(imageId, uniqueId, error);
+                pending--;
+                finishIfDone();
+            }
+
+            private synchronized void acknowledge(int imageId, String uniqueId, String error) {
+                if (closed) return;
+                BulkSubmissionResponse.Builder response = BulkSubmissionResponse.newBuilder().setImageId(imageId);
+                if (uniqueId != null) {
+                    response.setUniqueId(uniqueId);
+                } else {
+                    response.setError(error == null ? "Submission failed" : error);
+                }
+                responseObserver.onNext(response.build());
+            }
+
+            /**
+             * Ends the call once the client has sent every image and each one has been acknowledged.
+             */
+            private void finishIfDone() {
+                if (halfClosed && pending == 0 && !closed) {
+                    closed = true;
+                    responseObserver.onCompleted();
+                }
+            }
+        };
+    }
+
+    /**
+     * Completes a submission whose content has been fully received. An image with the same content as
+     * one already processed is not stored or labeled again: its request ID is linked to the existing result
+     * and its message is published as a duplicate, so it is still logged. Otherwise the upload is committed
+     * and the image published. Either way the unique ID is the name of the blob of the submission.
+     *
+     * @param submission the submission to complete.
+     * @return a future holding the unique ID of the image.
+     */
+    private ApiFuture<String> completeSubmission(Submission submission) {
+        if (!dedupContent) {
+            return storeAndPublish(submission, null);
+        }
+        String contentHash = submission.getContentHash();
+        return ApiFutures.transformAsync(findProcessedImageAsync(contentHash),
+                existing -> existing != null
+                        ? completeDuplicate(submission, existing)
+                        : storeAndPublish(submission, contentHash),
+                storageExecutor);
+    }
+
+    private ApiFuture<String> storeAndPublish(Submission submission, String contentHash) {
+        String uniqueId = submission.getUniqueBlobId();
         try {
-            ImageInformation imageInfo = fs.getImageInfo(request.getUniqueId());
+            submission.commit();
+            ApiFuture<String> published = pubSubService.publishMessage(uniqueId, cs.getBucketName(), uniqueId);
+            if (contentHash != null) {
+                recordContentHash(published, contentHash, uniqueId);
+            }
+            return ApiFutures.transform(published, messageId -> uniqueId, MoreExecutors.directExecutor());
+        } catch (IOException e) {
+            return ApiFutures.immediateFailedFuture(e);
+        }
+    }
+
+    private ApiFuture<String> completeDuplicate(Submission submission, ImageInformation existing) {
+        submission.abort();
+        String uniqueId = submission.getUniqueBlobId();
+        logger.log(Level.INFO, "Submission " + uniqueId + " duplicates " + existing.getRequestId());
+        ApiFuture<String> published = ApiFutures.transformAsync(fs.linkImageInfoAsync(existing, uniqueId, Timestamp.now()),
+                results -> pubSubService.publishDuplicate(uniqueId, cs.getBucketName(), uniqueId, existing.getRequestId()),
+                MoreExecutors.directExecutor());
+        return ApiFutures.transform(published, messageId -> uniqueId, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Looks up the details of the image previously submitted with the given content, if it has been processed.
+     * Deduplication only saves work, so a failed lookup is logged and the image is processed as new.
+     *
+     * @param contentHash the hex encoded SHA-256 of the image content.
+     * @return a future holding the image information, or null if no processed image has this content.
+     */
+    private ApiFuture<ImageInformation> findProcessedImageAsync(String contentHash) {
+        ApiFuture<ImageInformation> existing = ApiFutures.transformAsync(fs.getRequestIdByContentHashAsync(contentHash),
+                requestId -> requestId == null
+                        ? ApiFutures.immediateFuture(null)
+                        : imageDetailsCache.getAsync(requestId),
+                MoreExecutors.directExecutor());
+        return ApiFutures.catching(existing, Exception.class, e -> {
+            logger.log(Level.WARNING, "Content hash lookup failed: " + e.getMessage());
+            return null;
+        }, MoreExecutors.directExecutor());
+    }
 
-            ImageDetailsResponse.Builder responseBuilder = ImageDetailsResponse.newBuilder();
+    /**
+     * Records the content hash of a new image once its message is published.
+     *
+     * @param published   the future of the published message.
+     * @param contentHash the hex encoded SHA-256 of the image content.
+     * @param requestId   the request ID of the image.
+     */
+    private void recordContentHash(ApiFuture<String> published, String contentHash, String requestId) {
+        ApiFutures.addCallback(published, new ApiFutureCallback<String>() {
+            @Override
+            public void onSuccess(String messageId) {
+                ApiFutures.addCallback(fs.saveContentHashAsync(contentHash, requestId), new ApiFutureCallback<WriteResult>() {
+                    @Override
+                    public void onSuccess(WriteResult result) {
+                    }
 
-            // Add characteristics
-            responseBuilder.addAllCharacteristics(imageInfo.getVisionInfo());
+                    @Override
+                    public void onFailure(Throwable t) {
+                        logger.log(Level.WARNING, "Failed to record content hash: " + t.getMessage());
+                    }
+                }, MoreExecutors.directExecutor());
+            }
 
-            // Add translations
-            responseBuilder.addAllTranslations(imageInfo.getTranslationInfo());
+            @Override
+            public void onFailure(Throwable t) {
+                // The submission itself fails, so there is no result to point the hash to
+            }
+        }, MoreExecutors.directExecutor());
+    }
 
-            Timestamp timestamp = imageInfo.getTimestamp();
+    /**
+     * The upload of one submitted image, together with the hash of the content received so far.
+     * The first uploadBufferBytes of the content are held in memory, and the upload is only opened once
+     * the content outgrows them or is committed, so a small duplicate never opens an upload.
+     */
+    private class Submission {
+        private final String uniqueBlobId = cs.generateUniqueBlobName();
+        private final MessageDigest digest = newContentDigest();
+        private ByteString buffered = ByteString.EMPTY;
+        private UploadSession upload;
 
-            // Add processed date (if available)
-            if (timestamp != null) {
-                Date date = timestamp.toDate();
-                SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-                String formattedDate = sdf.format(date);
-                responseBuilder.setProcessedDate(formattedDate);
+        void append(ByteString chunk) throws IOException {
+            digest.update(chunk.asReadOnlyByteBuffer());
+            if (upload == null && buffered.size() + chunk.size() <= uploadBufferBytes) {
+                buffered = buffered.concat(chunk);
+                return;
             }
+            openUpload();
+            upload.append(chunk.asReadOnlyByteBuffer());
+        }
 
-            // Build the response
-            ImageDetailsResponse response = responseBuilder.build();
+        String commit() throws IOException {
+            openUpload();
+            return upload.commit();
+        }
 
-            // Send the response back to the client
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+        void abort() {
+            buffered = ByteString.EMPTY;
+            if (upload != null) {
+                upload.abort();
+            }
+        }
 
-        } catch (Exception e) {
-            responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+        private void openUpload() throws IOException {
+            if (upload == null) {
+                upload = cs.openUpload(uniqueBlobId);
+                upload.append(buffered.asReadOnlyByteBuffer());
+                buffered = ByteString.EMPTY;
+            }
+        }
+
+        String getUniqueBlobId() {
+            return uniqueBlobId;
+        }
+
+        /**
+         * Returns the hex encoded SHA-256 of the content. Only called once the last chunk was appended.
+         */
+        String getContentHash() {
+            return BaseEncoding.base16().lowerCase().encode(digest.digest());
+        }
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
         }
     }
 
+    @Override
+    public void getImageDetails(ImageDetailsRequest request, StreamObserver<ImageDetailsResponse> responseObserver) {
+        // The response is sent from the callback of the read, so no thread waits for Firestore
+        Context context = Context.current();
+        ApiFuture<ImageInformation> imageInfoFuture = imageDetailsCache.getAsync(request.getUniqueId());
+        context.addListener(cancelled -> imageInfoFuture.cancel(false), MoreExecutors.directExecutor());
+
+        ApiFutures.addCallback(imageInfoFuture, new ApiFutureCallback<ImageInformation>() {
+            @Override
+            public void onSuccess(ImageInformation imageInfo) {
+                if (context.isCancelled()) return;
+                if (imageInfo == null) {
+                    responseObserver.onError(Status.NOT_FOUND
+                            .withDescription("No details found for image " + request.getUniqueId())
+                            .asRuntimeException());
+                    return;
+                }
+                responseObserver.onNext(toImageDetailsResponse(imageInfo));
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (context.isCancelled()) return;
+                responseObserver.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static ImageDetailsResponse toImageDetailsResponse(ImageInformation imageInfo) {
+        ImageDetailsResponse.Builder responseBuilder = ImageDetailsResponse.newBuilder();
+
+        // Add characteristics
+        responseBuilder.addAllCharacteristics(imageInfo.getVisionInfo());
+
+        // Add translations
+        responseBuilder.addAllTranslations(imageInfo.getTranslationInfo());
+
+        Timestamp timestamp = imageInfo.getTimestamp();
+
+        // Add processed date (if available)
+        if (timestamp != null) {
+            Date date = timestamp.toDate();
+            SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
+            String formattedDate = sdf.format(date);
+            responseBuilder.setProcessedDate(formattedDate);
+        }
+
+        // Build the response
+        return responseBuilder.build();
+    }
+
     @Override
     public void getAllFiles(AllFilesWithRequest request, StreamObserver<AllFilesWithResponse> responseObserver) {
+        List<String> characteristics = new ArrayList<>();
+        if (!request.getCharacteristic().isEmpty()) {
+            characteristics.add(request.getCharacteristic());
+        }
+        characteristics.addAll(request.getCharacteristicsList());
+
+        FileNamePager pager;
         try {
-            List<String> files = fs.getImageFileNameBetweenCertainDatesAndWith(
-                    request.getStartDate(),
-                    request.getEndDate(),
-                    request.getCharacteristic()
-            );
-
-            AllFilesWithResponse response = AllFilesWithResponse.newBuilder()
-                    .addAllFileNames(files)
-                    .build();
-
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
-        } catch (ExecutionException | InterruptedException | ParseException e) {
+            if (useLabelIndex) {
+                pager = fs.newLabelIndexPager(
+                        request.getStartDate(),
+                        request.getEndDate(),
+                        characteristics,
+                        request.getMatchAll(),
+                        getAllFilesPageSize
+                );
+            } else if (characteristics.size() == 1) {
+                pager = fs.newImageFileNamePager(
+                        request.getStartDate(),
+                        request.getEndDate(),
+                        characteristics.get(0),
+                        getAllFilesPageSize
+                );
+            } else {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("Exactly one characteristic is supported without the label index")
+                        .asRuntimeException());
+                return;
+            }
+        } catch (ParseException e) {
             responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+
+        // Stream one page per message, reading the next page only while the client can take it
+        new FileNameStreamer(pager, (ServerCallStreamObserver<AllFilesWithResponse>) responseObserver).start();
+    }
+
+    /**
+     * Streams the pages of a query to a client. A page is read only while the client can take it,
+     * and it is sent from the callback of its read, so no thread waits for Firestore between pages.
+     * The read in flight is cancelled when the client goes away.
+     */
+    private class FileNameStreamer {
+        private final FileNamePager pager;
+        private final ServerCallStreamObserver<AllFilesWithResponse> observer;
+        private final Context context = Context.current();
+        // The stream is driven from both the ready handler and the read callbacks, so the state
+        // below and the calls on the observer are guarded by this streamer
+        private ApiFuture<List<String>> reading;
+        private boolean finished = false;
+
+        FileNameStreamer(FileNamePager pager, ServerCallStreamObserver<AllFilesWithResponse> observer) {
+            this.pager = pager;
+            this.observer = observer;
+        }
+
+        void start() {
+            context.addListener(cancelled -> cancel(), MoreExecutors.directExecutor());
+            observer.setOnReadyHandler(this::readNextPage);
+        }
+
+        private void readNextPage() {
+            ApiFuture<List<String>> page;
+            synchronized (this) {
+                if (reading != null || finished || context.isCancelled() || !observer.isReady()) {
+                    return;
+                }
+                page = pager.nextPageAsync();
+                reading = page;
+            }
+            ApiFutures.addCallback(page, new ApiFutureCallback<List<String>>() {
+                @Override
+                public void onSuccess(List<String> files) {
+                    synchronized (FileNameStreamer.this) {
+                        reading = null;
+                        if (finished) return;
+                        if (!files.isEmpty()) {
+                            observer.onNext(AllFilesWithResponse.newBuilder().addAllFileNames(files).build());
+                        }
+                        if (!pager.hasNext()) {
+                            finished = true;
+                            observer.onCompleted();
+                            return;
+                        }
+                    }
+                    readNextPage();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    synchronized (FileNameStreamer.this) {
+                        reading = null;
+                        if (finished) return;
+                        finished = true;
+                        observer.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private synchronized void cancel() {
+            finished = true;
+            if (reading != null) {
+                reading.cancel(false);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,18 @@
 package serviceimpl.servicesg;
 
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
 import google.scaling.service.ScalingInstancesService;
+import google.scaling.service.ScalingOperation;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import servicesg.*;
 
-import java.io.IOException;
-
 /**
  * gRPC service implementation for scaling server instances and image processing instances.
+ * Scale calls return as soon as the resize is accepted, with the ID of an operation whose
+ * progress is reported by getScalingOperationStatus on any server.
  */
 public class ServiceSG extends ServiceSGGrpc.ServiceSGImplBase {
 
@@ -17,44 +22,94 @@ public class ServiceSG extends ServiceSGGrpc.ServiceSGImplBase {
      * Constructor to initialize the ScalingInstancesService.
      *
      * @param port The port number for the service (not used in this implementation).
+     * @param si   The scaling service, shared with the autoscaler.
      */
-    public ServiceSG(int port) throws IOException {
-        this.si = new ScalingInstancesService();
+    public ServiceSG(int port, ScalingInstancesService si) {
+        this.si = si;
     }
 
     @Override
     public void scaleServerInstances(ScaleServerInstancesRequest request, StreamObserver<ScaleServerInstancesResponse> responseObserver) {
         int numInstances = request.getNumInstances();
 
-        boolean success = si.scaleServerInstancesLogic(numInstances);
-
-        String message = success ? "Successfully scaled server instances to " + numInstances
-                : "Failed to scale server instances to " + numInstances;
-
-        ScaleServerInstancesResponse response = ScaleServerInstancesResponse.newBuilder()
-                .setMessage(message)
-                .build();
-
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
+        ApiFutures.addCallback(si.scaleServerInstancesLogic(numInstances), new ApiFutureCallback<ScalingOperation>() {
+            @Override
+            public void onFailure(Throwable t) {
+                responseObserver.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
+            }
+
+            @Override
+            public void onSuccess(ScalingOperation operation) {
+                ScaleServerInstancesResponse response = ScaleServerInstancesResponse.newBuilder()
+                        .setMessage("Scaling server instances to " + numInstances)
+                        .setOperationId(operation.getId())
+                        .build();
+
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     @Override
     public void scaleImageProcessorsInstances(ScaleImageProcessorRequest request, StreamObserver<ScaleImageProcessorResponse> responseObserver) {
         int numInstances = request.getNumInstances();
 
-        boolean success = si.scaleImageProcessingInstancesLogic(numInstances);
-
-        String message = success ? "Successfully scaled image processing instances to " + numInstances
-                : "Failed to scale image procesing instances to " + numInstances;
-
-        ScaleImageProcessorResponse response = ScaleImageProcessorResponse.newBuilder()
-                .setMessage(message)
-                .build();
-
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
+        ApiFutures.addCallback(si.scaleImageProcessingInstancesLogic(numInstances), new ApiFutureCallback<ScalingOperation>() {
+            @Override
+            public void onFailure(Throwable t) {
+                responseObserver.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
+            }
+
+            @Override
+            public void onSuccess(ScalingOperation operation) {
+                ScaleImageProcessorResponse response = ScaleImageProcessorResponse.newBuilder()
+                        .setMessage("Scaling image processing instances to " + numInstances)
+                        .setOperationId(operation.getId())
+                        .build();
+
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            }
+        }, MoreExecutors.directExecutor());
     }
 
-
+    /**
+     * Reports the state of a scaling operation accepted by any server.
+     */
+    @Override
+    public void getScalingOperationStatus(ScalingOperationStatusRequest request, StreamObserver<ScalingOperationStatusResponse> responseObserver) {
+        ApiFutures.addCallback(si.getOperationAsync(request.getOperationId()), new ApiFutureCallback<ScalingOperation>() {
+            @Override
+            public void onFailure(Throwable t) {
+                responseObserver.onError(Status.INTERNAL.withDescription(t.getMessage()).asRuntimeException());
+            }
+
+            @Override
+            public void onSuccess(ScalingOperation operation) {
+                if (operation == null) {
+                    responseObserver.onError(Status.NOT_FOUND
+                            .withDescription("Unknown scaling operation " + request.getOperationId())
+                            .asRuntimeException());
+                    return;
+                }
+
+                ScalingOperationStatusResponse.Builder response = ScalingOperationStatusResponse.newBuilder()
+                        .setOperationId(operation.getId())
+                        .setGroupName(operation.getGroupName())
+                        .setTargetSize(operation.getTargetSize())
+                        .setState(ScalingOperationState.valueOf(operation.getState().name()))
+                        .setProgress(operation.getProgress());
+                if (operation.getError() != null) {
+                    response.setError(operation.getError());
+                }
+                if (operation.getSupersededBy() != null) {
+                    response.setSupersededBy(operation.getSupersededBy());
+                }
+
+                responseObserver.onNext(response.build());
+                responseObserver.onCompleted();
+            }
+        }, MoreExecutors.directExecutor());
+    }
 }
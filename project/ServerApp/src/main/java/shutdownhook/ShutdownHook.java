@@ -1,20 +1,64 @@
 package shutdownhook;
 
+import google.metrics.MetricsServer;
+import google.pubsub.service.PubSubService;
+import google.scaling.autoscaler.ImageProcessingAutoscaler;
+import google.scaling.service.ScalingInstancesService;
+import io.grpc.protobuf.services.HealthStatusManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class ShutdownHook extends Thread {
     io.grpc.Server svc;
+    HealthStatusManager health;
+    ImageProcessingAutoscaler autoscaler;
+    ScalingInstancesService scalingService;
+    PubSubService pubSubService;
+    ExecutorService executor;
+    MetricsServer metricsServer;
 
-    public ShutdownHook(io.grpc.Server svc) {
+    public ShutdownHook(io.grpc.Server svc, HealthStatusManager health, ImageProcessingAutoscaler autoscaler,
+                        ScalingInstancesService scalingService, PubSubService pubSubService, ExecutorService executor,
+                        MetricsServer metricsServer) {
         this.svc = svc;
+        this.health = health;
+        this.autoscaler = autoscaler;
+        this.scalingService = scalingService;
+        this.pubSubService = pubSubService;
+        this.executor = executor;
+        this.metricsServer = metricsServer;
     }
 
     @Override
     public void run() {
         System.err.println("*shutdown gRPC server, because JVM is shutting down");
         try {
+            // The autoscaler may be running on this server only, so it stops first
+            if (autoscaler != null) {
+                autoscaler.close();
+            }
+            // Reports NOT_SERVING, so health-checking clients move their new calls to the other servers
+            health.enterTerminalState();
             // Initiates an orderly shutdown in which preexisting calls continue
             // but new calls are rejected. So we can clean and finish work
             svc.shutdown();
             svc.awaitTermination();
+            // The handler executor is owned by the application when one is configured
+            if (executor != null) {
+                executor.shutdown();
+                // Lets the handlers still finishing their response work complete before the JVM exits
+                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    System.err.println("*handler executor did not terminate in time");
+                }
+            }
+            // Flush pending messages only after the last call that could publish has finished
+            pubSubService.shutdown();
+            scalingService.close();
+            // Stays up until the end, so the last scrape sees the calls of the shutdown
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
         } catch (InterruptedException e) {
             e.printStackTrace(System.err);
         }
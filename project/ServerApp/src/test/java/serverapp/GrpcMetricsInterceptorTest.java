@@ -0,0 +1,109 @@
+package serverapp;
+
+import google.metrics.GrpcMetricsInterceptor;
+import google.metrics.MetricsRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import servicesf.ImageDetailsRequest;
+import servicesf.ImageDetailsResponse;
+import servicesf.ServiceSFGrpc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GrpcMetricsInterceptorTest {
+    private static final String METHOD = "sfservice.ServiceSF/getImageDetails";
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String name = "metrics-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(new SlowService(), new GrpcMetricsInterceptor(registry)))
+                .build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        release.countDown();
+        channel.shutdownNow();
+        server.shutdownNow().awaitTermination();
+    }
+
+    @Test
+    void cancelledCallIsRecordedOnce() throws Exception {
+        ServiceSFGrpc.ServiceSFBlockingStub stub = ServiceSFGrpc.newBlockingStub(channel)
+                .withDeadlineAfter(100, TimeUnit.MILLISECONDS);
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> stub.getImageDetails(ImageDetailsRequest.getDefaultInstance()));
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+
+        // The handler only answers once the server saw the cancellation
+        assertTrue(waitForHandled("CANCELLED", 1));
+        release.countDown();
+        Thread.sleep(100);
+        assertEquals(1, handled("CANCELLED"));
+        assertEquals(0, handled("OK"));
+    }
+
+    @Test
+    void completedCallIsRecordedWithItsStatus() throws Exception {
+        release.countDown();
+
+        ServiceSFGrpc.newBlockingStub(channel).getImageDetails(ImageDetailsRequest.getDefaultInstance());
+
+        assertTrue(waitForHandled("OK", 1));
+        assertEquals(0, handled("CANCELLED"));
+    }
+
+    private boolean waitForHandled(String code, long expected) throws InterruptedException {
+        for (int i = 0; i < 100 && handled(code) < expected; i++) {
+            Thread.sleep(20);
+        }
+        return handled(code) == expected;
+    }
+
+    private long handled(String code) {
+        return registry.counter("grpc_server_handled_total", "gRPC calls completed",
+                "method", METHOD, "code", code).get();
+    }
+
+    /**
+     * Answers only once released, whether or not the call was cancelled meanwhile.
+     */
+    private class SlowService extends ServiceSFGrpc.ServiceSFImplBase {
+        @Override
+        public void getImageDetails(ImageDetailsRequest request, StreamObserver<ImageDetailsResponse> responseObserver) {
+            new Thread(() -> {
+                try {
+                    release.await();
+                    responseObserver.onNext(ImageDetailsResponse.getDefaultInstance());
+                    responseObserver.onCompleted();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    // The call was cancelled, as gRPC rejects answers to cancelled calls
+                }
+            }).start();
+        }
+    }
+}
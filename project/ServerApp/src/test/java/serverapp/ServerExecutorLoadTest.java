@@ -0,0 +1,101 @@
+package serverapp;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+import servicesf.ImageDetailsRequest;
+import servicesf.ImageDetailsResponse;
+import servicesf.ServiceSFGrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Drives many concurrent calls whose handlers block, as getImageDetails did on a Firestore read,
+ * through the executors of {@link ServerApp#configureExecutor}, and checks how many handlers block at once.
+ * Handlers wait for each other rather than for a fixed time, so the test neither depends on timing nor sleeps.
+ */
+class ServerExecutorLoadTest {
+    private static final int CALLS = 200;
+    private static final int THREADS = 16;
+    // How long a handler waits for the others before giving up, only reached when the executor limits them
+    private static final long WAIT_SECONDS = 5;
+
+    @Test
+    void virtualThreadsAreNotLimitedByPlatformThreads() throws Exception {
+        // Every handler blocks until all of them are running, far more than the bounded pool would allow
+        assertEquals(CALLS, peakConcurrency("virtual", CALLS));
+    }
+
+    @Test
+    void boundedPoolLimitsBlockingCallsToItsThreads() throws Exception {
+        assertEquals(THREADS, peakConcurrency("bounded", THREADS));
+    }
+
+    /**
+     * Sends CALLS calls whose handlers each block until the given number of handlers are running at once.
+     *
+     * @return the largest number of handlers that were running at once.
+     */
+    private static int peakConcurrency(String mode, int expected) throws Exception {
+        BlockingService service = new BlockingService(expected);
+        String name = "load-" + mode;
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(name);
+        ExecutorService executor = ServerApp.configureExecutor(builder, mode, THREADS);
+        Server server = builder.addService(service).build().start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+        try {
+            ServiceSFGrpc.ServiceSFFutureStub stub = ServiceSFGrpc.newFutureStub(channel);
+            List<ListenableFuture<ImageDetailsResponse>> calls = new ArrayList<>();
+            for (int i = 0; i < CALLS; i++) {
+                calls.add(stub.getImageDetails(ImageDetailsRequest.newBuilder().setUniqueId("image-" + i).build()));
+            }
+            for (ListenableFuture<ImageDetailsResponse> call : calls) {
+                call.get(1, TimeUnit.MINUTES);
+            }
+            return service.peak.get();
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow().awaitTermination();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Blocks every call until enough handlers are running, counting the handlers blocked at once.
+     */
+    private static class BlockingService extends ServiceSFGrpc.ServiceSFImplBase {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final CountDownLatch started;
+
+        private BlockingService(int concurrency) {
+            this.started = new CountDownLatch(concurrency);
+        }
+
+        @Override
+        public void getImageDetails(ImageDetailsRequest request, StreamObserver<ImageDetailsResponse> responseObserver) {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                started.countDown();
+                started.await(WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            responseObserver.onNext(ImageDetailsResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+    }
+}